@@ -0,0 +1,276 @@
+package test.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import test.ABCompany;
+import test.ConcurrentCompanyList;
+
+/**
+ * Stress test for {@link ConcurrentCompanyList}. Writer threads append companies and
+ * two ticker threads apply price ticks while reader threads query the list, for a
+ * range of thread counts.
+ * <p>
+ * Every price is a distinct whole number, so sums are exact, and each statistics
+ * snapshot identifies exactly which writes it includes:
+ * <ul>
+ * <li>every appended company holds the prices 1 to 5, so the company count gives the
+ * number of appends;</li>
+ * <li>the low ticker's company always holds the lowest prices and each of its ticks is
+ * higher than the last, so the minimum gives the number of its ticks;</li>
+ * <li>likewise the high ticker's company holds the highest prices, so the maximum gives
+ * the number of its ticks, which it applies in batches.</li>
+ * </ul>
+ * A reader then checks that those counts lie between the progress the writers had
+ * reported before and after the snapshot was taken, and that the sum and the version
+ * are exactly the ones those writes produce. A torn snapshot, a lost or repeated write,
+ * or a failed lookup of a company that is known to exist aborts the run.
+ * <p>
+ * Run with {@code gradle :benchmarks:stress}, optionally passing
+ * {@code -PstressArgs="<seconds per round> <max threads>"}.
+ */
+public class ConcurrentCompanyListStress {
+    private static final int WINDOW = ABCompany.DEFAULT_WINDOW_CAPACITY;
+    /** Each tick of a ticker is at least this much above the tick it evicts. */
+    private static final int STEP = 2 * WINDOW;
+    private static final int TICKERS = 2;
+    private static final int LOW = 0;
+    private static final int HIGH = 1;
+    /** Far below the appended prices, which the low ticker never catches up with. */
+    private static final double[] BASE = {-(double) (1L << 40), 10 * WINDOW};
+    /** Ticks per call: the low ticker uses addTick, the high ticker addTicks. */
+    private static final int[] BATCH = {1, 4};
+    private static final int[] NUMBER = {1, 2};
+
+    public static void main(String[] args) throws InterruptedException {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 2 * Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%-8s %-8s %-8s %15s %15s %15s%n",
+                "readers", "writers", "tickers", "reads/s", "appends/s", "ticks/s");
+        for (int threads = 2; threads <= Math.max(2, maxThreads); threads *= 2) {
+            // One appending writer for every eight threads, besides the two tickers; the rest read
+            int writers = Math.max(1, threads / 8);
+            int readers = Math.max(1, threads - writers - TICKERS);
+            run(readers, writers, seconds);
+        }
+    }
+
+    private static void run(int readers, int writers, double seconds) throws InterruptedException {
+        ConcurrentCompanyList list = new ConcurrentCompanyList();
+        LongAdder reads = new LongAdder();
+        // The number of companies each writer has finished appending
+        AtomicIntegerArray published = new AtomicIntegerArray(writers);
+        // The number of ticks each ticker has finished applying
+        AtomicLongArray ticked = new AtomicLongArray(TICKERS);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < TICKERS; t++) {
+            list.addCompany(company(NUMBER[t], tickerPrices(t)));
+        }
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            threads.add(worker(start, running, failure, () -> {
+                // Writers own disjoint number ranges so appends never collide
+                for (int i = 1; running.get(); i++) {
+                    list.addCompany(company(appendedNumber(writer, i), appendedPrices()));
+                    published.set(writer, i);
+                }
+            }));
+        }
+        for (int t = 0; t < TICKERS; t++) {
+            int ticker = t;
+            threads.add(worker(start, running, failure, () -> {
+                int batch = BATCH[ticker];
+                int[] numbers = new int[batch];
+                Arrays.fill(numbers, NUMBER[ticker]);
+                double[] prices = new double[batch];
+                for (long ticks = 0; running.get(); ticks += batch) {
+                    for (int i = 0; i < batch; i++) {
+                        prices[i] = price(ticker, ticks + i + 1 + WINDOW);
+                    }
+                    boolean applied = batch == 1
+                            ? list.addTick(NUMBER[ticker], prices[0])
+                            : list.addTicks(numbers, prices, batch) == batch;
+                    if (!applied) {
+                        throw new IllegalStateException("Ticks for company " + NUMBER[ticker] + " were dropped");
+                    }
+                    ticked.set(ticker, ticks + batch);
+                }
+            }));
+        }
+        for (int r = 0; r < readers; r++) {
+            int reader = r;
+            threads.add(worker(start, running, failure, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long lastVersion = -1;
+                while (running.get()) {
+                    if (reader % 2 == 0) {
+                        Progress before = Progress.of(published, ticked);
+                        ConcurrentCompanyList.Statistics statistics = list.getStatistics();
+                        Progress after = Progress.of(published, ticked);
+                        check(statistics, before, after.plusInFlight(writers));
+                        if (statistics.getVersion() < lastVersion) {
+                            throw new IllegalStateException("Statistics went back from version " + lastVersion
+                                    + " to " + statistics.getVersion());
+                        }
+                        lastVersion = statistics.getVersion();
+                    } else {
+                        int writer = random.nextInt(writers);
+                        int known = published.get(writer);
+                        int number = known > 0
+                                ? appendedNumber(writer, 1 + random.nextInt(known))
+                                : NUMBER[random.nextInt(TICKERS)];
+                        ABCompany company = list.getCompanyByNumber(number);
+                        if (company == null || company.getCompanyNumber() != number) {
+                            throw new IllegalStateException("Lookup of published company " + number + " failed");
+                        }
+                    }
+                    reads.increment();
+                }
+            }));
+        }
+
+        start.countDown();
+        TimeUnit.MILLISECONDS.sleep((long) (seconds * 1000));
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("Stress run failed", failure.get());
+        }
+        // With every writer stopped, the final snapshot must include exactly every write
+        Progress done = Progress.of(published, ticked);
+        check(list.getStatistics(), done, done);
+        System.out.printf("%-8d %-8d %-8d %15.0f %15.0f %15.0f%n", readers, writers, TICKERS,
+                reads.sum() / seconds, done.appends / seconds, (done.ticks[LOW] + done.ticks[HIGH]) / seconds);
+    }
+
+    /** The writes the writers had reported as finished at one moment. */
+    private static final class Progress {
+        final long appends;
+        final long[] ticks;
+
+        Progress(long appends, long[] ticks) {
+            this.appends = appends;
+            this.ticks = ticks;
+        }
+
+        static Progress of(AtomicIntegerArray published, AtomicLongArray ticked) {
+            long appends = 0;
+            for (int w = 0; w < published.length(); w++) {
+                appends += published.get(w);
+            }
+            return new Progress(appends, new long[] {ticked.get(LOW), ticked.get(HIGH)});
+        }
+
+        /** Adds the write each thread may have applied but not reported yet. */
+        Progress plusInFlight(int writers) {
+            return new Progress(appends + writers, new long[] {ticks[LOW] + BATCH[LOW], ticks[HIGH] + BATCH[HIGH]});
+        }
+    }
+
+    /**
+     * Works out which writes a snapshot includes and checks them against the writers'
+     * progress and against every statistic.
+     */
+    private static void check(ConcurrentCompanyList.Statistics statistics, Progress low, Progress high) {
+        long companies = statistics.getCompanyCount();
+        long appends = companies - TICKERS;
+        // The minimum is the oldest price of the low window, the maximum the newest of the high one
+        long lowTicks = sequence(LOW, statistics.getMin()) - 1;
+        long highTicks = sequence(HIGH, statistics.getMax()) - WINDOW;
+        double expectedSum = WINDOW * (WINDOW + 1) / 2.0 * appends + windowSum(LOW, lowTicks) + windowSum(HIGH, highTicks);
+        long expectedVersion = TICKERS + appends + lowTicks / BATCH[LOW] + highTicks / BATCH[HIGH];
+        if (appends < low.appends || appends > high.appends
+                || lowTicks < low.ticks[LOW] || lowTicks > high.ticks[LOW]
+                || highTicks < low.ticks[HIGH] || highTicks > high.ticks[HIGH] || highTicks % BATCH[HIGH] != 0
+                || statistics.getPriceCount() != WINDOW * companies
+                || statistics.getSum() != expectedSum
+                || statistics.getVersion() != expectedVersion) {
+            throw new IllegalStateException(String.format("Inconsistent statistics at version %d: %d companies, "
+                            + "%d prices, sum %.1f, min %.1f, max %.1f; decoded %d appends (%d..%d), %d low ticks "
+                            + "(%d..%d), %d high ticks (%d..%d), expected sum %.1f and version %d",
+                    statistics.getVersion(), companies, statistics.getPriceCount(), statistics.getSum(),
+                    statistics.getMin(), statistics.getMax(), appends, low.appends, high.appends,
+                    lowTicks, low.ticks[LOW], high.ticks[LOW], highTicks, low.ticks[HIGH], high.ticks[HIGH],
+                    expectedSum, expectedVersion));
+        }
+    }
+
+    /**
+     * The m-th price of a ticker, counting the initial prices from 1. Each price is
+     * {@link #STEP} above the one {@link #WINDOW} places earlier, so a window's sum
+     * grows by exactly STEP per tick, and the prices strictly increase.
+     */
+    private static double price(int ticker, long m) {
+        return BASE[ticker] + m % WINDOW + STEP * (m / WINDOW);
+    }
+
+    /** Inverts {@link #price(int, long)}, failing for a price the ticker never writes. */
+    private static long sequence(int ticker, double price) {
+        long offset = (long) (price - BASE[ticker]);
+        long m = offset / STEP * WINDOW + offset % STEP;
+        if (offset < 0 || offset % STEP >= WINDOW || price(ticker, m) != price) {
+            throw new IllegalStateException(price + " is not a price of ticker " + ticker);
+        }
+        return m;
+    }
+
+    /** The sum of a ticker's window after the given number of ticks. */
+    private static double windowSum(int ticker, long ticks) {
+        return WINDOW * BASE[ticker] + WINDOW * (WINDOW - 1) / 2.0 + STEP * (ticks + 1);
+    }
+
+    private static double[] tickerPrices(int ticker) {
+        double[] prices = new double[WINDOW];
+        for (int i = 0; i < WINDOW; i++) {
+            prices[i] = price(ticker, i + 1);
+        }
+        return prices;
+    }
+
+    private static double[] appendedPrices() {
+        double[] prices = new double[WINDOW];
+        for (int i = 0; i < WINDOW; i++) {
+            prices[i] = i + 1;
+        }
+        return prices;
+    }
+
+    private static int appendedNumber(int writer, int i) {
+        return (writer + 1) * 100_000_000 + i;
+    }
+
+    private static ABCompany company(int number, double[] prices) {
+        return new ABCompany(number, "Company " + number, "Clothes", 3, "UK", prices);
+    }
+
+    private static Thread worker(CountDownLatch start, AtomicBoolean running, AtomicReference<Throwable> failure,
+                                 Runnable body) {
+        Thread thread = new Thread(() -> {
+            try {
+                start.await();
+                body.run();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+                running.set(false);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
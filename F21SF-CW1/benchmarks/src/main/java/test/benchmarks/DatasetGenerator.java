@@ -0,0 +1,89 @@
+package test.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import test.ABCompany;
+import test.CompanyList;
+
+/**
+ * DatasetGenerator builds repeatable synthetic company datasets for the benchmarks,
+ * either in memory or as input files in the format {@code Manager.readFromFile} reads.
+ */
+public final class DatasetGenerator {
+    static final String[] PRODUCTS = {
+        "clothes", "groceries", "Betting operators", "telecommunications", "Industrial Goods",
+        "banking", "insurance", "mining", "pharmaceuticals", "software", "retail", "energy",
+        "utilities", "media", "aerospace", "chemicals", "construction", "transport", "tobacco", "real estate"
+    };
+    static final String[] COUNTRIES = {
+        "UK", "Ireland", "India", "France", "Germany", "Spain", "USA", "Japan", "Brazil", "Canada"
+    };
+    static final int PRICES_PER_COMPANY = 5;
+    private static final long SEED = 42;
+
+    private DatasetGenerator() {
+    }
+
+    /**
+     * Builds a list of {@code size} companies numbered from 1.
+     *
+     * @param size the number of companies
+     * @return the generated list
+     */
+    public static CompanyList companies(int size) {
+        Random random = new Random(SEED);
+        CompanyList companyList = new CompanyList();
+        for (int i = 1; i <= size; i++) {
+            double[] prices = new double[PRICES_PER_COMPANY];
+            for (int p = 0; p < prices.length; p++) {
+                prices[p] = price(random);
+            }
+            companyList.addCompany(new ABCompany(i, "Company " + i + " PLC", PRODUCTS[random.nextInt(PRODUCTS.length)],
+                    1 + random.nextInt(100), COUNTRIES[random.nextInt(COUNTRIES.length)], prices));
+        }
+        return companyList;
+    }
+
+    /**
+     * Returns an input file holding {@code size} companies, writing it to the temporary
+     * directory the first time it is asked for.
+     *
+     * @param size the number of companies
+     * @return the path of the input file
+     * @throws IOException if the file cannot be written
+     */
+    public static synchronized Path inputFile(int size) throws IOException {
+        Path file = Paths.get(System.getProperty("java.io.tmpdir"), "companies-" + size + ".txt");
+        if (Files.exists(file)) {
+            return file;
+        }
+        Path partial = Files.createTempFile(file.getParent(), "companies-" + size, ".tmp");
+        Random random = new Random(SEED);
+        try (BufferedWriter writer = Files.newBufferedWriter(partial, Charset.defaultCharset())) {
+            for (int i = 1; i <= size; i++) {
+                writer.write(i + ", Company " + i + " PLC, " + PRODUCTS[random.nextInt(PRODUCTS.length)] + ", "
+                        + (1 + random.nextInt(100)) + ", " + COUNTRIES[random.nextInt(COUNTRIES.length)] + ", ");
+                for (int p = 0; p < PRICES_PER_COMPANY; p++) {
+                    if (p > 0) {
+                        writer.write(';');
+                    }
+                    writer.write(Double.toString(price(random)));
+                }
+                writer.newLine();
+            }
+        }
+        Files.move(partial, file);
+        return file;
+    }
+
+    /** Prices between 1.00 and 1000.00 with two decimals. */
+    private static double price(Random random) {
+        return (100 + random.nextInt(99_901)) / 100.0;
+    }
+}
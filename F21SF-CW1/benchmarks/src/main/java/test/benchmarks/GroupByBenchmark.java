@@ -0,0 +1,66 @@
+package test.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.CompanyList;
+import test.GroupByAggregator;
+import test.GroupByAggregator.GroupKey;
+import test.GroupByAggregator.GroupStatistics;
+
+/**
+ * Measures {@link GroupByAggregator} as the number of fork-join threads grows, to show
+ * how the per-group aggregation scales with cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class GroupByBenchmark {
+    @Param({"1000000", "10000000"})
+    int size;
+
+    @Param({"1", "2", "4", "8"})
+    int parallelism;
+
+    @Param({"COUNTRY", "PRODUCT_OR_SERVICE", "RANKING_BAND"})
+    GroupKey key;
+
+    CompanyList companyList;
+    ForkJoinPool pool;
+    GroupByAggregator aggregator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        companyList = DatasetGenerator.companies(size);
+        pool = new ForkJoinPool(parallelism);
+        aggregator = new GroupByAggregator(pool, GroupByAggregator.DEFAULT_RANKING_BAND_WIDTH);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public List<GroupStatistics> aggregate() {
+        return aggregator.aggregate(companyList, key);
+    }
+}
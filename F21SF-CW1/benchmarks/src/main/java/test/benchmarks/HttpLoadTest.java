@@ -0,0 +1,111 @@
+package test.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import test.CompanyList;
+import test.CompanyServer;
+
+/**
+ * Local load test for {@link CompanyServer}. Starts a server over a generated list on
+ * a free loopback port and keeps a fixed number of requests in flight from one
+ * asynchronous HTTP client, which stands in for that many concurrent clients. The mix
+ * is mostly company lookups with some category counts, statistics and coarse
+ * histograms. Reports throughput and the p50, p99 and p999 latency of each request,
+ * measured from sending it to receiving the whole body.
+ * <p>
+ * Run with {@code gradle :benchmarks:loadtest}, optionally passing
+ * {@code -PloadArgs="<companies> <concurrent requests> <total requests>"}. The task
+ * launches the JVM with {@code -Dsun.net.httpserver.nodelay=true}, as
+ * {@link CompanyServer} recommends.
+ */
+public class HttpLoadTest {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int companies = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int total = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+
+        CompanyList companyList = DatasetGenerator.companies(companies);
+        CompanyServer server = new CompanyServer(companyList, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+        String base = "http://127.0.0.1:" + server.getPort();
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        try {
+            // Warm up the server and the client before measuring
+            run(client, base, companies, concurrency, Math.min(total, 20_000));
+            long[] latencies = new long[total];
+            long start = System.nanoTime();
+            int failures = run(client, base, companies, concurrency, total, latencies);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            Arrays.sort(latencies);
+            System.out.printf("%d requests, %d in flight, %d failed: %.0f requests/sec%n",
+                    total, concurrency, failures, total / seconds);
+            System.out.printf("latency p50 %.2f ms, p99 %.2f ms, p999 %.2f ms, max %.2f ms%n",
+                    percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                    latencies[latencies.length - 1] / 1e6);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static int run(HttpClient client, String base, int companies, int concurrency, int total)
+            throws InterruptedException {
+        return run(client, base, companies, concurrency, total, new long[total]);
+    }
+
+    private static int run(HttpClient client, String base, int companies, int concurrency, int total,
+                           long[] latencies) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(total);
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong failures = new AtomicLong();
+        for (int i = 0; i < total; i++) {
+            inFlight.acquire();
+            HttpRequest request = HttpRequest.newBuilder(URI.create(base + path(companies))).GET().build();
+            long sent = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, error) -> {
+                latencies[next.getAndIncrement()] = System.nanoTime() - sent;
+                if (error != null || response.statusCode() != 200) {
+                    failures.incrementAndGet();
+                }
+                inFlight.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        return (int) failures.get();
+    }
+
+    private static String path(int companies) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int choice = random.nextInt(100);
+        if (choice < 80) {
+            return "/companies/" + (1 + random.nextInt(companies));
+        } else if (choice < 90) {
+            return "/count?productOrService=" + DatasetGenerator.PRODUCTS[random.nextInt(DatasetGenerator.PRODUCTS.length)]
+                    .replace(' ', '+');
+        } else if (choice < 95) {
+            return "/count?country=" + DatasetGenerator.COUNTRIES[random.nextInt(DatasetGenerator.COUNTRIES.length)];
+        } else if (choice < 99) {
+            return "/statistics";
+        }
+        return "/histogram?bucketCents=10000";
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+}
@@ -0,0 +1,57 @@
+package test.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.CompanyList;
+import test.Manager;
+import test.MappedFileReader;
+
+/**
+ * Measures loading a generated input file with {@link Manager#readFromFile(String)}
+ * and with the memory-mapped reader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class IngestBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int size;
+
+    String filename;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        filename = DatasetGenerator.inputFile(size).toString();
+    }
+
+    @Benchmark
+    public Manager readFromFile() {
+        Manager manager = new Manager();
+        manager.readFromFile(filename);
+        return manager;
+    }
+
+    @Benchmark
+    public CompanyList readMapped() throws IOException {
+        CompanyList companyList = new CompanyList();
+        new MappedFileReader(companyList).read(filename);
+        return companyList;
+    }
+}
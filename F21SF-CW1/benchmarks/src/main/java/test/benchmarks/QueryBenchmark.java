@@ -0,0 +1,97 @@
+package test.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.ABCompany;
+import test.CompanyList;
+import test.PriceSketches;
+
+/**
+ * Measures the {@link CompanyList} queries over generated lists of companies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class QueryBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int size;
+
+    CompanyList companyList;
+    int nextNumber;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        companyList = DatasetGenerator.companies(size);
+        // Builds the sorted indexes outside the measurement
+        companyList.getTopCompaniesBySharePrice(1);
+        companyList.getCompaniesRankedBetween(1, 1);
+    }
+
+    @Benchmark
+    public ABCompany getCompanyByNumber() {
+        // Walks the numbers with a stride so successive lookups hit different slots
+        nextNumber = (nextNumber + 7919) % size;
+        return companyList.getCompanyByNumber(nextNumber + 1);
+    }
+
+    @Benchmark
+    public double[] getSharePriceStatistics() {
+        return companyList.getSharePriceStatistics();
+    }
+
+    @Benchmark
+    public Map<Double, Long> getSharePriceFrequency() {
+        return companyList.getSharePriceFrequency();
+    }
+
+    @Benchmark
+    public long countCompaniesProducing() {
+        return companyList.countCompaniesProducing("clothes");
+    }
+
+    @Benchmark
+    public List<ABCompany> getTopCompaniesBySharePrice() {
+        return companyList.getTopCompaniesBySharePrice(100);
+    }
+
+    @Benchmark
+    public List<ABCompany> getCompaniesRankedBetween() {
+        // One ranking out of the hundred the generator uses
+        return companyList.getCompaniesRankedBetween(50, 50);
+    }
+
+    @Benchmark
+    public PriceSketches sketchSharePrices() {
+        // The one-off pass behind getSharePriceQuantile and getDistinctSharePriceCount
+        return PriceSketches.of(companyList.getCompanies(), ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public double getExactSharePriceQuantile() {
+        return companyList.getExactSharePriceQuantile(0.99);
+    }
+
+    @Benchmark
+    public double getSharePriceQuantile() {
+        return companyList.getSharePriceQuantile(0.99);
+    }
+}
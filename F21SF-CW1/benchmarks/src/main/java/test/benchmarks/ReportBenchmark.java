@@ -0,0 +1,69 @@
+package test.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import test.ABCompany;
+import test.Manager;
+
+/**
+ * Measures {@link Manager#writeToFile(String)} and rendering the full details of
+ * every company with {@link ABCompany#getFullDetails()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class ReportBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int size;
+
+    Manager manager;
+    List<ABCompany> companies;
+    String outputFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        manager = new Manager();
+        manager.readFromFile(DatasetGenerator.inputFile(size).toString());
+        companies = DatasetGenerator.companies(size).getCompanies();
+        outputFile = Files.createTempFile("report-" + size, ".txt").toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(Paths.get(outputFile));
+    }
+
+    @Benchmark
+    public void writeToFile() {
+        manager.writeToFile(outputFile);
+    }
+
+    @Benchmark
+    public void getFullDetails(Blackhole blackhole) {
+        for (ABCompany company : companies) {
+            blackhole.consume(company.getFullDetails());
+        }
+    }
+}
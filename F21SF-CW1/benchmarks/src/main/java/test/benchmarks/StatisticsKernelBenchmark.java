@@ -0,0 +1,59 @@
+package test.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.PriceKernels;
+
+/**
+ * Compares the statistics kernel {@link PriceKernels} selects, which is the Vector API
+ * kernel because the fork adds the incubator module, with the scalar loop, over price
+ * arrays that fit in cache and arrays that do not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "--add-modules", "jdk.incubator.vector"})
+public class StatisticsKernelBenchmark {
+    @Param({"1000", "100000", "10000000", "50000000"})
+    int size;
+
+    double[] prices;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (PriceKernels.kernelName().equals("scalar")) {
+            throw new IllegalStateException("The vector kernel is not available on this machine");
+        }
+        Random random = new Random(42);
+        prices = new double[size];
+        for (int i = 0; i < size; i++) {
+            prices[i] = Math.round(random.nextDouble() * 100_000) / 100.0;
+        }
+    }
+
+    @Benchmark
+    public double[] vector() {
+        return PriceKernels.statistics(prices, 0, size);
+    }
+
+    @Benchmark
+    public double[] scalar() {
+        return PriceKernels.scalarStatistics(prices, 0, size);
+    }
+}
@@ -5,4 +5,6 @@
  * 
  */
 module Assignment1 {
+    requires jdk.httpserver;
+    requires jdk.jfr;
 }
\ No newline at end of file
@@ -1,17 +1,32 @@
 package test;
 
-import java.util.Arrays;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
 /**
  * ABCompany class represents a company with attributes like company number,
  * company name, product or service, ranking, country, and share prices.
  */
 public class ABCompany {
+    /** Number of recent share prices kept per company, matching the five-day history. */
+    public static final int DEFAULT_WINDOW_CAPACITY = 5;
+
     private int companyNumber;
     private String companyName;
-    private String productOrService;
+    /** Product/service and country codes in {@link StringDictionary#SHARED}. */
+    private int productOrService = StringDictionary.NULL_CODE;
     private int ranking;
-    private String Country;
-    private double[] sharePrices;
+    private int Country = StringDictionary.NULL_CODE;
+    /** Recent share prices, oldest first, with rolling statistics. */
+    private PriceWindow sharePrices;
+    /** The last default format locale found to write ASCII digits. */
+    private static volatile Locale asciiDigitsLocale;
+    /** The list this company belongs to, kept informed of changes to indexed fields. */
+    private CompanyList owner;
+    /** The company number formatted with {@code %03d}, built on first use. */
+    private String paddedNumber;
+    /** The average share price as text, built on first use and dropped when a price changes. */
+    private String averageText;
 
     /**
      * Constructs an ABCompany with the specified details.
@@ -26,10 +41,10 @@ public class ABCompany {
     public ABCompany(int companyNumber, String companyName, String strings, int ranking, String Country, double[] sharePrices2) {
         this.companyNumber = companyNumber;
         this.companyName = companyName;
-        this.productOrService = strings;
+        this.productOrService = StringDictionary.SHARED.encode(strings);
         this.ranking = ranking;
-        this.Country = Country;
-        this.sharePrices = sharePrices2;
+        this.Country = StringDictionary.SHARED.encode(Country);
+        this.sharePrices = newWindow(sharePrices2);
     }
     /**
      * Overloaded constructor for ABCompany. Currently, it does not set any attributes
@@ -60,7 +75,19 @@ public class ABCompany {
      * @param companyNumber The new company number.
      */
     public void setCompanyNumber(int companyNumber) {
+        if (owner != null) {
+            owner.companyNumberChanged(this, this.companyNumber, companyNumber);
+        }
         this.companyNumber = companyNumber;
+        this.paddedNumber = null;
+    }
+
+    CompanyList getOwner() {
+        return owner;
+    }
+
+    void setOwner(CompanyList owner) {
+        this.owner = owner;
     }
 
     public String getCompanyName() {
@@ -72,11 +99,22 @@ public class ABCompany {
     }
 
     public String getProductOrService() {
+        return StringDictionary.SHARED.decode(productOrService);
+    }
+
+    /**
+     * @return the code of the product or service in {@link StringDictionary#SHARED}
+     */
+    int getProductOrServiceCode() {
         return productOrService;
     }
 
     public void setProductOrService(String productOrService) {
-        this.productOrService = (String) productOrService;
+        int code = StringDictionary.SHARED.encode(productOrService);
+        if (owner != null) {
+            owner.productOrServiceChanged(this, this.productOrService, code);
+        }
+        this.productOrService = code;
     }
 
     public int getRanking() {
@@ -85,22 +123,56 @@ public class ABCompany {
 
     public void setRanking(int ranking) {
         this.ranking = ranking;
+        if (owner != null) {
+            owner.rankingChanged(this);
+        }
     }
 
     public String getCountry() {
+        return StringDictionary.SHARED.decode(Country);
+    }
+
+    /**
+     * @return the code of the country in {@link StringDictionary#SHARED}
+     */
+    int getCountryCode() {
         return Country;
     }
 
     public void setCountry(String Country) {
-        this.Country = Country;
+        int code = StringDictionary.SHARED.encode(Country);
+        if (owner != null) {
+            owner.countryChanged(this, this.Country, code);
+        }
+        this.Country = code;
     }
 
+    /**
+     * Retrieves a copy of the share prices in the window, oldest first. Changing the
+     * copy does not change the company; use {@link #setSharePrices(double[])} or
+     * {@link #addTick(double)} for that.
+     *
+     * @return The share prices, oldest first.
+     */
     public double[] getSharePrices() {
-        return sharePrices;
+        return sharePrices == null ? null : sharePrices.toArray();
     }
 
+    /**
+     * Replaces every share price. The window capacity becomes the larger of the number
+     * of prices and {@link #DEFAULT_WINDOW_CAPACITY}.
+     *
+     * @param sharePrices The new share prices, oldest first.
+     */
     public void setSharePrices(double[] sharePrices) {
-        this.sharePrices = sharePrices;
+        if (owner != null) {
+            owner.sharePricesChanging(this);
+        }
+        this.sharePrices = newWindow(sharePrices);
+        this.averageText = null;
+        if (owner != null) {
+            owner.sharePricesChanged(this);
+        }
     }
     /**
      * Calculates the average share price of the company.
@@ -108,11 +180,7 @@ public class ABCompany {
      * @return The average of the share prices.
      */
     public double getAverageSharePrice() {
-        int total = 0;
-        for (double price : sharePrices) {
-            total += price;
-        }
-        return (double) total / sharePrices.length;
+        return sharePrices.getAverage();
     }
     /**
      * Retrieves the highest share price of the company.
@@ -120,7 +188,42 @@ public class ABCompany {
      * @return The maximum share price from the available data.
      */
     public double getMaxSharePrice() {
-        return Arrays.stream(sharePrices).max().orElse(Double.NaN); // Assuming sharePrices is a double array
+        return sharePrices.getMax();
+    }
+    /**
+     * Retrieves the lowest share price of the company.
+     *
+     * @return The minimum share price from the available data.
+     */
+    public double getMinSharePrice() {
+        return sharePrices.getMin();
+    }
+    /**
+     * Appends a new share price tick. Once the window is full the oldest price is
+     * dropped, and the average, maximum and minimum are updated in O(1) amortized time.
+     *
+     * @param price The new share price.
+     */
+    public void addTick(double price) {
+        if (owner != null) {
+            owner.sharePricesChanging(this);
+        }
+        sharePrices.add(price);
+        averageText = null;
+        if (owner != null) {
+            owner.sharePricesChanged(this);
+        }
+    }
+
+    /**
+     * @return the window of recent share prices, or null if the company has none
+     */
+    PriceWindow getSharePriceWindow() {
+        return sharePrices;
+    }
+
+    private static PriceWindow newWindow(double[] prices) {
+        return prices == null ? null : new PriceWindow(prices, Math.max(prices.length, DEFAULT_WINDOW_CAPACITY));
     }
 
     /**
@@ -131,16 +234,17 @@ public class ABCompany {
      */
     
     public String getFullDetails() {
-        StringBuffer sb = new StringBuffer();
-        sb.append(String.format("Full details for ")).append(String.format("%03d", companyNumber)).append(": \nName: ").append(companyName).append(", ").append(Country).append(". ");
-        sb.append(companyName).append(" produces ").append(String.join(", ", productOrService)).append(".\nThe past five-day share price: ");
-        for (int i = 0; i < sharePrices.length; i++) {
-            sb.append(sharePrices[i]);
-            if (i != sharePrices.length - 1) {
+        double[] prices = getSharePrices();
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("Full details for ").append(getPaddedNumber()).append(": \nName: ").append(companyName).append(", ").append(getCountry()).append(". ");
+        sb.append(companyName).append(" produces ").append(getProductOrService()).append(".\nThe past five-day share price: ");
+        for (int i = 0; i < prices.length; i++) {
+            appendPrice(sb, prices[i]);
+            if (i != prices.length - 1) {
                 sb.append(", ");
             }
         }
-        sb.append("\nTherefore, they have an average unaltered share price of ").append(getAverageSharePrice());
+        sb.append("\nTherefore, they have an average unaltered share price of ").append(getAverageText());
         return sb.toString();
     }
     /**
@@ -150,9 +254,83 @@ public class ABCompany {
      * @return Brief company details.
      */
     public String getShortDetails() {
-        StringBuffer sb = new StringBuffer();
-        sb.append("Short Details for ").append(String.format("%03d", companyNumber)).append(":\n");
-        sb.append("CN ").append(String.format("%03d", companyNumber));
-        sb.append("(").append(companyName.charAt(0)).append(") has an average share price of ").append(getAverageSharePrice()).append("\n");
+        String number = getPaddedNumber();
+        StringBuilder sb = new StringBuilder(96);
+        sb.append("Short Details for ").append(number).append(":\n");
+        sb.append("CN ").append(number);
+        sb.append("(").append(companyName.charAt(0)).append(") has an average share price of ").append(getAverageText()).append("\n");
         return sb.toString();
+    }
+
+    /**
+     * Appends a price exactly as {@link StringBuilder#append(double)} would. Values of
+     * at least 1 and below 10^7 with at most five decimals, which covers nearly every
+     * quoted price and the average of five of them, are written from their whole
+     * hundred-thousandths instead of going through the general double-to-text conversion.
+     */
+    private static void appendPrice(StringBuilder sb, double price) {
+        long units = Math.round(price * 100_000);
+        if (!(price >= 1 && price < 1e7) || units / 100_000.0 != price) {
+            sb.append(price);
+            return;
+        }
+        int fraction = (int) (units % 100_000);
+        sb.append(units / 100_000).append('.');
+        if (fraction == 0) {
+            sb.append('0');
+            return;
+        }
+        // Digits down to the last non-zero one, as Double.toString drops trailing zeros
+        for (int divisor = 10_000; fraction != 0; divisor /= 10) {
+            sb.append((char) ('0' + fraction / divisor));
+            fraction %= divisor;
+        }
+    }
+
+    private String getAverageText() {
+        String text = averageText;
+        if (text == null) {
+            StringBuilder sb = new StringBuilder(24);
+            appendPrice(sb, getAverageSharePrice());
+            text = sb.toString();
+            averageText = text;
+        }
+        return text;
+    }
+
+    private String getPaddedNumber() {
+        String padded = paddedNumber;
+        if (padded == null) {
+            padded = padNumber(companyNumber);
+            paddedNumber = padded;
+        }
+        return padded;
+    }
+
+    /**
+     * Writes a number as {@code String.format("%03d", number)} would. Formatter uses the
+     * zero digit of the default format locale, so only locales with ASCII digits, which
+     * is nearly all of them, take the direct path.
+     */
+    private static String padNumber(int number) {
+        if (number < 0 || !formatsAsciiDigits()) {
+            return String.format("%03d", number);
+        }
+        if (number >= 100) {
+            return Integer.toString(number);
+        }
+        return (number >= 10 ? "0" : "00") + number;
+    }
+
+    private static boolean formatsAsciiDigits() {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        Locale checked = asciiDigitsLocale;
+        if (locale.equals(checked)) {
+            return true;
+        }
+        if (DecimalFormatSymbols.getInstance(locale).getZeroDigit() != '0') {
+            return false;
+        }
+        asciiDigitsLocale = locale;
+        return true;
     }}
\ No newline at end of file
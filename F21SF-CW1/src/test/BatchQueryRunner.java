@@ -0,0 +1,138 @@
+package test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * BatchQueryRunner answers a file of queries against one loaded {@link CompanyList},
+ * writing one tab-separated result line per query. It lets scripts run thousands of
+ * lookups against a single JVM instead of starting one per lookup.
+ * <p>
+ * Each query line is one of:
+ * <pre>
+ * 123                  company number lookup
+ * lookup 123           the same, spelled out
+ * count clothes        number of companies producing a product or service, ignoring case
+ * country UK           number of companies based in a country, ignoring case
+ * </pre>
+ * Blank lines and lines starting with {@code #} are skipped. The results are:
+ * <pre>
+ * lookup  123  name  product  ranking  country  average share price
+ * lookup  123  NOT FOUND
+ * count   clothes  42
+ * country UK  17
+ * error   line  reason
+ * </pre>
+ */
+public class BatchQueryRunner {
+    private static final char SEPARATOR = '\t';
+
+    private final CompanyList companyList;
+
+    /**
+     * Creates a runner for a loaded list.
+     *
+     * @param companyList the companies to query
+     */
+    public BatchQueryRunner(CompanyList companyList) {
+        this.companyList = companyList;
+    }
+
+    /**
+     * Answers every query from a reader. The writer is not flushed or closed.
+     *
+     * @param in  the queries, one per line
+     * @param out where the results are written, one line per query
+     * @return the number of queries answered, including those that failed to parse
+     * @throws IOException if the queries cannot be read or the results written
+     */
+    public long run(BufferedReader in, Writer out) throws IOException {
+        long start = Metrics.start();
+        long queries = 0;
+        long lookups = 0;
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String query = line.trim();
+                if (query.isEmpty() || query.startsWith("#")) {
+                    continue;
+                }
+                if (answer(query, out)) {
+                    lookups++;
+                }
+                queries++;
+            }
+            return queries;
+        } finally {
+            Metrics.add(Metrics.Counter.QUERIES, queries);
+            Metrics.add(Metrics.Counter.LOOKUPS, lookups);
+            Metrics.record(Metrics.Phase.BATCH, start, queries);
+        }
+    }
+
+    /**
+     * @return whether the query was looked up in the list, rather than rejected
+     */
+    private boolean answer(String query, Writer out) throws IOException {
+        int space = query.indexOf(' ');
+        String command = space < 0 ? query : query.substring(0, space);
+        String argument = space < 0 ? "" : query.substring(space + 1).trim();
+        if (Character.isDigit(command.charAt(0)) || command.charAt(0) == '-') {
+            return lookup(query, command, out);
+        } else if (command.equalsIgnoreCase("lookup")) {
+            return lookup(query, argument, out);
+        } else if (command.equalsIgnoreCase("count")) {
+            count("count", argument, companyList.countCompaniesProducing(argument), out);
+            return true;
+        } else if (command.equalsIgnoreCase("country")) {
+            count("country", argument, companyList.countCompaniesInCountry(argument), out);
+            return true;
+        }
+        error(query, "unknown query", out);
+        return false;
+    }
+
+    private boolean lookup(String query, String number, Writer out) throws IOException {
+        int companyNumber;
+        try {
+            companyNumber = Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            error(query, "invalid company number", out);
+            return false;
+        }
+        ABCompany company = companyList.getCompanyByNumber(companyNumber);
+        out.write("lookup");
+        field(Integer.toString(companyNumber), out);
+        if (company == null) {
+            field("NOT FOUND", out);
+        } else {
+            field(company.getCompanyName(), out);
+            field(company.getProductOrService(), out);
+            field(Integer.toString(company.getRanking()), out);
+            field(company.getCountry(), out);
+            field(Double.toString(company.getAverageSharePrice()), out);
+        }
+        out.write('\n');
+        return true;
+    }
+
+    private static void count(String command, String argument, long count, Writer out) throws IOException {
+        out.write(command);
+        field(argument, out);
+        field(Long.toString(count), out);
+        out.write('\n');
+    }
+
+    private static void error(String query, String reason, Writer out) throws IOException {
+        out.write("error");
+        field(query, out);
+        field(reason, out);
+        out.write('\n');
+    }
+
+    private static void field(String value, Writer out) throws IOException {
+        out.write(SEPARATOR);
+        out.write(String.valueOf(value));
+    }
+}
@@ -2,67 +2,528 @@ package test;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.ToDoubleFunction;
 
 public class CompanyList {
-    private List<ABCompany> companies;
+    private ArrayList<ABCompany> companies;
+    /** Primary index from company number to position in {@code companies}. */
+    private final IntIndexMap numberIndex;
+    /**
+     * Secondary indexes from the folded {@link StringDictionary} code of a product/service
+     * or country to the matching companies; an entry is null when nothing matches.
+     */
+    private List<Set<ABCompany>> productIndex;
+    private List<Set<ABCompany>> countryIndex;
+    /**
+     * Sorted indexes on each company's maximum share price (highest first) and on ranking
+     * (lowest first). Built by the first query that needs them, then kept up to date.
+     */
+    private SortedCompanyIndex priceIndex;
+    private SortedCompanyIndex rankingIndex;
+    /**
+     * Quantile and distinct-count sketches of every share price. Built in parallel by the
+     * first query that needs them, then fed as companies are added. A replaced price cannot
+     * be taken out of a sketch, so they are dropped and rebuilt after ticks.
+     */
+    private PriceSketches priceSketches;
+    /**
+     * Running share price statistics. The sum leaves out NaN prices, which are counted
+     * separately so that a NaN leaving a window can be taken out again.
+     */
+    private long priceCount;
+    private double priceSum;
+    private long nanCount;
+    /**
+     * Running extremes; min and max start at infinities rather than 0. Once a change takes
+     * away the price or company they hold, they are read from the price heaps instead.
+     */
+    private double priceMin = Double.POSITIVE_INFINITY;
+    private double priceMax = Double.NEGATIVE_INFINITY;
+    private ABCompany highestPriceCompany;
+    private double highestPrice = Double.NaN;
+    private boolean extremesValid = true;
+    /** Heaps on each company's maximum and minimum share price, built once the running extremes are given up. */
+    private PriceHeap maxPriceHeap;
+    private PriceHeap minPriceHeap;
+    /** The share price statistics of the company being changed, taken just before the change. */
+    private int changingCount;
+    private double changingSum;
+    private int changingNaNs;
+    private double changingMin;
+    private double changingMax;
     /**
      * Constructs an empty list of companies.
      */
     public CompanyList() {
         companies = new ArrayList<>();
+        numberIndex = new IntIndexMap();
+        productIndex = new ArrayList<>();
+        countryIndex = new ArrayList<>();
     }
     /**
      * Adds a company to the list.
      *
      * @param company the {@code ABCompany} to be added to the list
+     * @throws IllegalArgumentException if a company with the same number is already in the list,
+     *                                  or the company already belongs to another list
      */
     public void addCompany(ABCompany company) {
+        if (company.getOwner() != null) {
+            throw new IllegalArgumentException("Company " + company.getCompanyNumber() + " already belongs to a CompanyList");
+        }
+        if (numberIndex.containsKey(company.getCompanyNumber())) {
+            throw new IllegalArgumentException("Duplicate company number: " + company.getCompanyNumber());
+        }
+        int position = companies.size();
+        numberIndex.put(company.getCompanyNumber(), position);
         companies.add(company);
+        if (priceIndex != null) {
+            priceIndex.add(company, position);
+        }
+        if (maxPriceHeap != null) {
+            maxPriceHeap.add(company.getMaxSharePrice());
+            minPriceHeap.add(company.getMinSharePrice());
+        }
+        if (rankingIndex != null) {
+            rankingIndex.add(company, position);
+        }
+        if (priceSketches != null) {
+            priceSketches.addAll(company.getSharePrices());
+        }
+        addToIndex(productIndex, company.getProductOrServiceCode(), company);
+        addToIndex(countryIndex, company.getCountryCode(), company);
+        accumulate(company);
+        company.setOwner(this);
+    }
+    /**
+     * Adds companies to the list in order, as {@link #addCompany(ABCompany)} would one at a time.
+     *
+     * @param batch the companies to add
+     * @throws IllegalArgumentException if a company number is already in the list or appears twice
+     *                                  in the batch, or a company already belongs to another list;
+     *                                  the list is then left unchanged
+     */
+    public void addAll(List<ABCompany> batch) {
+        addAll(List.of(new Batch(batch)), null);
+    }
+    /**
+     * Sizes the list and its number index for the given number of companies, so that loading
+     * them does not have to grow either one step at a time.
+     *
+     * @param expectedSize the number of companies the list is expected to hold
+     */
+    public void ensureCapacity(int expectedSize) {
+        companies.ensureCapacity(expectedSize);
+        numberIndex.ensureCapacity(expectedSize);
+    }
+
+    /**
+     * A run of companies prepared for {@link CompanyList#addAll(List, ForkJoinPool)} on the
+     * thread that parsed them. Their share price statistics and their product/service and
+     * country groups are worked out here, so adding the run to a list only merges results.
+     */
+    static final class Batch {
+        private final List<ABCompany> companies;
+        /** Every price that is not NaN, in list order, so the list can add them up in order. */
+        private final double[] prices;
+        private long priceCount;
+        private long nanCount;
+        private double priceMin = Double.POSITIVE_INFINITY;
+        private double priceMax = Double.NEGATIVE_INFINITY;
+        private ABCompany highestPriceCompany;
+        private double highestPrice = Double.NaN;
+        /** The companies of each folded product/service and country code, in list order. */
+        private final List<List<ABCompany>> byProduct = new ArrayList<>();
+        private final List<List<ABCompany>> byCountry = new ArrayList<>();
+
+        Batch(List<ABCompany> companies) {
+            this.companies = companies;
+            int length = 0;
+            for (ABCompany company : companies) {
+                length += company.getSharePrices().length;
+            }
+            double[] numbers = new double[length];
+            int next = 0;
+            for (ABCompany company : companies) {
+                for (double price : company.getSharePrices()) {
+                    priceCount++;
+                    if (Double.isNaN(price)) {
+                        nanCount++;
+                    } else {
+                        numbers[next++] = price;
+                    }
+                    priceMin = Math.min(priceMin, price);
+                    priceMax = Math.max(priceMax, price);
+                }
+                double companyMax = company.getMaxSharePrice();
+                if (highestPriceCompany == null || Double.compare(companyMax, highestPrice) > 0) {
+                    highestPriceCompany = company;
+                    highestPrice = companyMax;
+                }
+                group(byProduct, company.getProductOrServiceCode(), company);
+                group(byCountry, company.getCountryCode(), company);
+            }
+            this.prices = next == length ? numbers : Arrays.copyOf(numbers, next);
+        }
+
+        int size() {
+            return companies.size();
+        }
+
+        private static void group(List<List<ABCompany>> groups, int code, ABCompany company) {
+            int key = StringDictionary.SHARED.foldedCode(code);
+            if (key == StringDictionary.NULL_CODE) {
+                return;
+            }
+            while (groups.size() <= key) {
+                groups.add(null);
+            }
+            List<ABCompany> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.set(key, group);
+            }
+            group.add(company);
+        }
+    }
+    /**
+     * Adds prepared runs of companies to the list in order. The result is the same as adding
+     * every company with {@link #addCompany(ABCompany)}, but the statistics are merged from
+     * the partial results of each run, and the product/service and country indexes are
+     * filled one key per task on the given pool.
+     *
+     * @param batches the runs to add, in order
+     * @param pool    the pool that fills the indexes, or null to fill them on this thread
+     * @throws IllegalArgumentException if a company number is already in the list or appears twice,
+     *                                  or a company already belongs to another list; the list is
+     *                                  then left unchanged
+     */
+    void addAll(List<Batch> batches, ForkJoinPool pool) {
+        int total = 0;
+        for (Batch batch : batches) {
+            total += batch.size();
+        }
+        int first = companies.size();
+        ensureCapacity(first + total);
+        addNumbers(batches, first);
+        for (Batch batch : batches) {
+            companies.addAll(batch.companies);
+        }
+        if (priceIndex != null || rankingIndex != null || maxPriceHeap != null) {
+            for (int position = first; position < companies.size(); position++) {
+                ABCompany company = companies.get(position);
+                if (priceIndex != null) {
+                    priceIndex.add(company, position);
+                }
+                if (rankingIndex != null) {
+                    rankingIndex.add(company, position);
+                }
+                if (maxPriceHeap != null) {
+                    maxPriceHeap.add(company.getMaxSharePrice());
+                    minPriceHeap.add(company.getMinSharePrice());
+                }
+            }
+        }
+        // Rebuilt in parallel on the next query rather than fed one company at a time
+        priceSketches = null;
+        for (Batch batch : batches) {
+            priceCount += batch.priceCount;
+            nanCount += batch.nanCount;
+            for (double price : batch.prices) {
+                priceSum += price;
+            }
+            priceMin = Math.min(priceMin, batch.priceMin);
+            priceMax = Math.max(priceMax, batch.priceMax);
+            if (extremesValid && batch.highestPriceCompany != null && (highestPriceCompany == null
+                    || Double.compare(batch.highestPrice, highestPrice) > 0)) {
+                highestPriceCompany = batch.highestPriceCompany;
+                highestPrice = batch.highestPrice;
+            }
+        }
+        List<ForkJoinTask<?>> merges = new ArrayList<>();
+        addGroups(productIndex, batches, true, merges);
+        addGroups(countryIndex, batches, false, merges);
+        if (pool != null) {
+            pool.submit(() -> ForkJoinTask.invokeAll(merges)).join();
+        } else {
+            for (ForkJoinTask<?> merge : merges) {
+                merge.invoke();
+            }
+        }
+        for (int position = first; position < companies.size(); position++) {
+            companies.get(position).setOwner(this);
+        }
+    }
+
+    /**
+     * Indexes the number of every company in the batches, or none of them if one is
+     * a duplicate or already belongs to a list.
+     */
+    private void addNumbers(List<Batch> batches, int first) {
+        int position = first;
+        try {
+            for (Batch batch : batches) {
+                for (ABCompany company : batch.companies) {
+                    if (company.getOwner() != null) {
+                        throw new IllegalArgumentException("Company " + company.getCompanyNumber() + " already belongs to a CompanyList");
+                    }
+                    if (numberIndex.containsKey(company.getCompanyNumber())) {
+                        throw new IllegalArgumentException("Duplicate company number: " + company.getCompanyNumber());
+                    }
+                    numberIndex.put(company.getCompanyNumber(), position++);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            int added = position - first;
+            for (Batch batch : batches) {
+                for (int i = 0; i < batch.size() && added > 0; i++, added--) {
+                    numberIndex.remove(batch.companies.get(i).getCompanyNumber());
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the index entry of every key in the batches, then adds one task per key
+     * that appends that key's companies from each batch in order.
+     */
+    private static void addGroups(List<Set<ABCompany>> index, List<Batch> batches, boolean byProduct,
+                                  List<ForkJoinTask<?>> merges) {
+        int keys = 0;
+        for (Batch batch : batches) {
+            keys = Math.max(keys, (byProduct ? batch.byProduct : batch.byCountry).size());
+        }
+        while (index.size() < keys) {
+            index.add(null);
+        }
+        for (int key = 0; key < keys; key++) {
+            List<List<ABCompany>> groups = new ArrayList<>();
+            for (Batch batch : batches) {
+                List<List<ABCompany>> batchGroups = byProduct ? batch.byProduct : batch.byCountry;
+                List<ABCompany> group = key < batchGroups.size() ? batchGroups.get(key) : null;
+                if (group != null) {
+                    groups.add(group);
+                }
+            }
+            if (groups.isEmpty()) {
+                continue;
+            }
+            if (index.get(key) == null) {
+                index.set(key, new LinkedHashSet<>());
+            }
+            Set<ABCompany> matches = index.get(key);
+            merges.add(ForkJoinTask.adapt(() -> {
+                for (List<ABCompany> group : groups) {
+                    matches.addAll(group);
+                }
+            }));
+        }
+    }
+    /**
+     * Re-keys the primary index when a company in this list changes its number.
+     * Called by {@link ABCompany#setCompanyNumber(int)} before the number is changed.
+     *
+     * @throws IllegalArgumentException if another company already has the new number
+     */
+    void companyNumberChanged(ABCompany company, int oldNumber, int newNumber) {
+        if (oldNumber == newNumber) {
+            return;
+        }
+        if (numberIndex.containsKey(newNumber)) {
+            throw new IllegalArgumentException("Duplicate company number: " + newNumber);
+        }
+        numberIndex.put(newNumber, numberIndex.remove(oldNumber));
+    }
+    /**
+     * Moves a company between product/service index entries.
+     * Called by {@link ABCompany#setProductOrService(String)} with dictionary codes.
+     */
+    void productOrServiceChanged(ABCompany company, int oldCode, int newCode) {
+        removeFromIndex(productIndex, oldCode, company);
+        addToIndex(productIndex, newCode, company);
     }
     /**
-     * Retrieves the list of companies.
+     * Moves a company between country index entries.
+     * Called by {@link ABCompany#setCountry(String)} with dictionary codes.
+     */
+    void countryChanged(ABCompany company, int oldCode, int newCode) {
+        removeFromIndex(countryIndex, oldCode, company);
+        addToIndex(countryIndex, newCode, company);
+    }
+
+    private static void addToIndex(List<Set<ABCompany>> index, int code, ABCompany company) {
+        int key = StringDictionary.SHARED.foldedCode(code);
+        if (key == StringDictionary.NULL_CODE) {
+            return;
+        }
+        while (index.size() <= key) {
+            index.add(null);
+        }
+        Set<ABCompany> matches = index.get(key);
+        if (matches == null) {
+            matches = new LinkedHashSet<>();
+            index.set(key, matches);
+        }
+        matches.add(company);
+    }
+
+    private static void removeFromIndex(List<Set<ABCompany>> index, int code, ABCompany company) {
+        int key = StringDictionary.SHARED.foldedCode(code);
+        Set<ABCompany> matches = get(index, key);
+        if (matches != null && matches.remove(company) && matches.isEmpty()) {
+            index.set(key, null);
+        }
+    }
+
+    private static Set<ABCompany> get(List<Set<ABCompany>> index, int key) {
+        return key >= 0 && key < index.size() ? index.get(key) : null;
+    }
+
+    private static Set<ABCompany> lookup(List<Set<ABCompany>> index, String value) {
+        Set<ABCompany> matches = get(index, StringDictionary.SHARED.findFoldedCode(value));
+        return matches != null ? matches : Collections.emptySet();
+    }
+    /**
+     * Retrieves the list of companies. The list is read-only so that the
+     * indexes stay in step with it; use {@link #addCompany(ABCompany)} to add.
      *
      * @return the list of {@code ABCompany} objects
      */
     public List<ABCompany> getCompanies() {
-        return companies;
+        return Collections.unmodifiableList(companies);
     }
     /**
-     * Finds and returns the company with the highest share price.
+     * Finds and returns the company with the highest share price. When several
+     * companies share the highest price the one added first is returned.
      *
      * @return The {@code ABCompany} with the highest share price, or null if the list is empty.
      */
     public ABCompany getCompanyWithHighestSharePrice() {
-        return companies.stream()
-                .max((c1, c2) -> Double.compare(c1.getMaxSharePrice(), c2.getMaxSharePrice()))
-                .orElse(null);
+        if (extremesValid) {
+            return highestPriceCompany;
+        }
+        int position = priceHeaps().first();
+        return position >= 0 ? companies.get(position) : null;
+    }
+    /**
+     * Lists the companies with the highest maximum share prices. Companies with the same
+     * price are listed in the order they were added, as for
+     * {@link #getCompanyWithHighestSharePrice()}. Takes O(log n + k) once the price index exists.
+     *
+     * @param k the maximum number of companies to list
+     * @return up to {@code k} companies, highest price first
+     */
+    public List<ABCompany> getTopCompaniesBySharePrice(int k) {
+        checkCount(k);
+        return priceIndex().head(k);
+    }
+    /**
+     * Lists the companies with the lowest maximum share prices. This is the end of the
+     * order used by {@link #getTopCompaniesBySharePrice(int)} read backwards, so companies
+     * with the same price are listed most recently added first.
+     *
+     * @param n the maximum number of companies to list
+     * @return up to {@code n} companies, lowest price first
+     */
+    public List<ABCompany> getBottomCompaniesBySharePrice(int n) {
+        checkCount(n);
+        return priceIndex().tail(n);
+    }
+    /**
+     * Lists the companies whose maximum share price lies in a range.
+     * Takes O(log n + matches) once the price index exists.
+     *
+     * @param minPrice the lowest price to include
+     * @param maxPrice the highest price to include
+     * @return the matching companies, highest price first
+     */
+    public List<ABCompany> getCompaniesWithSharePriceBetween(double minPrice, double maxPrice) {
+        return priceIndex().range(minPrice, maxPrice);
+    }
+    /**
+     * Lists the companies whose ranking lies in a range.
+     * Takes O(log n + matches) once the ranking index exists.
+     *
+     * @param fromRanking the lowest ranking to include
+     * @param toRanking   the highest ranking to include
+     * @return the matching companies, lowest ranking first and then in the order they were added
+     */
+    public List<ABCompany> getCompaniesRankedBetween(int fromRanking, int toRanking) {
+        return rankingIndex().range(fromRanking, toRanking);
+    }
+
+    private SortedCompanyIndex priceIndex() {
+        if (priceIndex == null) {
+            priceIndex = buildIndex(ABCompany::getMaxSharePrice, true);
+        }
+        return priceIndex;
+    }
+
+    /**
+     * Builds the price heaps the first time the running extremes are given up.
+     *
+     * @return the heap on each company's maximum share price
+     */
+    private PriceHeap priceHeaps() {
+        if (maxPriceHeap == null) {
+            long start = Metrics.start();
+            maxPriceHeap = new PriceHeap(true, companies.size());
+            minPriceHeap = new PriceHeap(false, companies.size());
+            for (ABCompany company : companies) {
+                maxPriceHeap.add(company.getMaxSharePrice());
+                minPriceHeap.add(company.getMinSharePrice());
+            }
+            Metrics.increment(Metrics.Counter.SCANS);
+            Metrics.record(Metrics.Phase.SCAN, start, companies.size());
+        }
+        return maxPriceHeap;
+    }
+
+    private SortedCompanyIndex rankingIndex() {
+        if (rankingIndex == null) {
+            rankingIndex = buildIndex(ABCompany::getRanking, false);
+        }
+        return rankingIndex;
+    }
+
+    private SortedCompanyIndex buildIndex(ToDoubleFunction<ABCompany> key, boolean descending) {
+        SortedCompanyIndex index = new SortedCompanyIndex(key, descending);
+        for (int i = 0; i < companies.size(); i++) {
+            index.add(companies.get(i), i);
+        }
+        return index;
+    }
+
+    private static void checkCount(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative: " + count);
+        }
     }
 
     /**
      * Calculates statistical information about share prices including count, sum, min, and max.
+     * The values are kept up to date as companies are added and prices change, so this is an
+     * O(1) read.
+     * <p>
+     * Until a price changes the sum is added up in list order and matches a full pass
+     * exactly. A changed price is taken out of the running sum and the new one added, so
+     * after ticks the sum can differ from a fresh pass by rounding in the last bits.
      *
      * @return An array of doubles containing the count, sum, minimum, and maximum share price values.
+     *         The minimum and maximum are {@code Double.NaN} if there are no share prices.
      */
     public double[] getSharePriceStatistics() {
-        return companies.stream()
-                .flatMapToDouble(c -> Arrays.stream(c.getSharePrices()))
-                .collect(() -> new double[4], // supplier
-                        (a, b) -> { // accumulator
-                            a[0]++; // count
-                            a[1] += b; // sum
-                            a[2] = a[2] == 0 ? b : Math.min(a[2], b); // min
-                            a[3] = Math.max(a[3], b); // max
-                        },
-                        (a, b) -> { // combiner
-                            a[0] += b[0];
-                            a[1] += b[1];
-                            a[2] = Math.min(a[2], b[2]);
-                            a[3] = Math.max(a[3], b[3]);
-                        });
+        return new double[] {priceCount, getSharePriceSum(), getMinSharePrice(), getMaxSharePrice()};
     }
     /**
      * Computes and returns the average share price across all companies.
@@ -70,60 +531,443 @@ public class CompanyList {
      * @return The average share price, or {@code Double.NaN} if there are no share prices.
      */
     public double getAverageSharePrice() {
-        double[] stats = getSharePriceStatistics();
-        return stats[0] > 0 ? stats[1] / stats[0] : Double.NaN;
+        return priceCount > 0 ? getSharePriceSum() / priceCount : Double.NaN;
     }
     /**
      * Retrieves the minimum share price across all companies.
      *
-     * @return The minimum share price value.
+     * @return The minimum share price value, or {@code Double.NaN} if there are no share prices.
      */
     public double getMinSharePrice() {
-        double[] stats = getSharePriceStatistics();
-        return stats[2];
+        if (priceCount == 0 || nanCount > 0) {
+            return Double.NaN;
+        }
+        if (extremesValid) {
+            return priceMin;
+        }
+        priceHeaps();
+        // Without NaN prices the only NaN keys belong to companies with no prices, which sort last
+        return minPriceHeap.firstKey();
     }
     /**
      * Retrieves the maximum share price across all companies.
      *
-     * @return The maximum share price value.
+     * @return The maximum share price value, or {@code Double.NaN} if there are no share prices.
      */
     public double getMaxSharePrice() {
-        double[] stats = getSharePriceStatistics();
-        return stats[3];
+        if (priceCount == 0 || nanCount > 0) {
+            return Double.NaN;
+        }
+        if (extremesValid) {
+            return priceMax;
+        }
+        double max = priceHeaps().firstKey();
+        if (Double.isNaN(max)) {
+            // A company with no prices sorts first; rare enough to scan for the real maximum
+            max = Double.NEGATIVE_INFINITY;
+            for (ABCompany company : companies) {
+                if (company.getSharePriceWindow() != null && company.getSharePriceWindow().size() > 0) {
+                    max = Math.max(max, company.getMaxSharePrice());
+                }
+            }
+        }
+        return max;
+    }
+
+    private double getSharePriceSum() {
+        return nanCount > 0 ? Double.NaN : priceSum;
+    }
+    /**
+     * Estimates a share price quantile from a {@link QuantileSketch}, in memory that does
+     * not grow with the number of prices. The true rank of the result is within about
+     * 1.3% of {@code fraction}; see {@link #getExactSharePriceQuantile(double)} for the
+     * exact value.
+     *
+     * @param fraction the quantile as a fraction between 0 and 1, such as 0.95 for p95
+     * @return the estimated quantile, or {@code Double.NaN} if there are no share prices
+     * @throws IllegalArgumentException if the fraction is not between 0 and 1
+     */
+    public double getSharePriceQuantile(double fraction) {
+        return priceSketches().getQuantiles().getQuantile(fraction);
+    }
+    /**
+     * Estimates the median share price. See {@link #getSharePriceQuantile(double)}.
+     *
+     * @return the estimated median, or {@code Double.NaN} if there are no share prices
+     */
+    public double getMedianSharePrice() {
+        return getSharePriceQuantile(0.5);
+    }
+    /**
+     * Estimates the number of distinct share prices from a {@link DistinctCountSketch},
+     * in memory that does not grow with the number of prices. The relative standard
+     * error is 0.81%; see {@link #getExactDistinctSharePriceCount()} for the exact value.
+     *
+     * @return the estimated number of distinct share prices
+     */
+    public long getDistinctSharePriceCount() {
+        return priceSketches().getDistinctPrices().getEstimate();
+    }
+    /**
+     * Finds a share price quantile exactly by sorting every price: the smallest price
+     * whose rank is at least {@code fraction} of the number of prices. Takes O(n log n)
+     * time and O(n) memory, and is meant for checking the estimates.
+     *
+     * @param fraction the quantile as a fraction between 0 and 1
+     * @return the quantile, or {@code Double.NaN} if there are no share prices
+     * @throws IllegalArgumentException if the fraction is not between 0 and 1
+     */
+    public double getExactSharePriceQuantile(double fraction) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("fraction must be between 0 and 1: " + fraction);
+        }
+        double[] prices = sortedSharePrices();
+        // NaN sorts last and has no rank, as in the sketch
+        int count = prices.length;
+        while (count > 0 && Double.isNaN(prices[count - 1])) {
+            count--;
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        return prices[(int) rank - 1];
+    }
+    /**
+     * Counts the distinct share prices exactly by sorting every price. Takes O(n log n)
+     * time and O(n) memory, and is meant for checking the estimates.
+     *
+     * @return the number of distinct share prices
+     */
+    public long getExactDistinctSharePriceCount() {
+        double[] prices = sortedSharePrices();
+        long distinct = 0;
+        for (int i = 0; i < prices.length; i++) {
+            // Compares as the sketch hashes: 0.0 and -0.0 are one price, as are all NaNs
+            if (i == 0 || Double.doubleToLongBits(prices[i] + 0.0) != Double.doubleToLongBits(prices[i - 1] + 0.0)) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    private PriceSketches priceSketches() {
+        if (priceSketches == null) {
+            long start = Metrics.start();
+            priceSketches = PriceSketches.of(companies, ForkJoinPool.commonPool());
+            Metrics.increment(Metrics.Counter.SCANS);
+            Metrics.record(Metrics.Phase.SCAN, start, companies.size());
+        }
+        return priceSketches;
+    }
+
+    private double[] sortedSharePrices() {
+        double[] prices = new double[Math.toIntExact(priceCount)];
+        int next = 0;
+        for (ABCompany company : companies) {
+            double[] companyPrices = company.getSharePrices();
+            System.arraycopy(companyPrices, 0, prices, next, companyPrices.length);
+            next += companyPrices.length;
+        }
+        Arrays.sort(prices);
+        return prices;
+    }
+    /**
+     * Takes a company's share prices out of the running statistics. Called by
+     * {@link ABCompany#setSharePrices(double[])} and {@link ABCompany#addTick(double)}
+     * just before the prices change; {@link #sharePricesChanged(ABCompany)} adds them back.
+     */
+    void sharePricesChanging(ABCompany company) {
+        PriceWindow window = company.getSharePriceWindow();
+        changingCount = window == null ? 0 : window.size();
+        changingSum = window == null ? 0 : window.getSum();
+        changingNaNs = window == null ? 0 : window.getNaNCount();
+        changingMin = company.getMinSharePrice();
+        changingMax = company.getMaxSharePrice();
+        priceCount -= changingCount;
+        priceSum -= changingSum;
+        nanCount -= changingNaNs;
+    }
+    /**
+     * Adds a company's new share prices to the running statistics and moves it within the
+     * price indexes. The running extremes are kept when the change cannot have taken away
+     * the price or company they hold, which is the usual case for a tick; otherwise they
+     * are read from the price heaps from then on.
+     */
+    void sharePricesChanged(ABCompany company) {
+        priceSketches = null;
+        int position = numberIndex.get(company.getCompanyNumber());
+        if (priceIndex != null) {
+            priceIndex.update(company, position);
+        }
+        if (maxPriceHeap != null) {
+            maxPriceHeap.update(position, company.getMaxSharePrice());
+            minPriceHeap.update(position, company.getMinSharePrice());
+        }
+        PriceWindow window = company.getSharePriceWindow();
+        int count = window == null ? 0 : window.size();
+        int nans = window == null ? 0 : window.getNaNCount();
+        priceCount += count;
+        priceSum += window == null ? 0 : window.getSum();
+        nanCount += nans;
+        if (!extremesValid) {
+            return;
+        }
+        double min = company.getMinSharePrice();
+        double max = company.getMaxSharePrice();
+        boolean minTaken = changingCount > 0 && Double.compare(changingMin, priceMin) == 0
+                && !(count > 0 && Double.compare(min, changingMin) <= 0);
+        boolean maxTaken = changingCount > 0 && Double.compare(changingMax, priceMax) == 0
+                && !(count > 0 && Double.compare(max, changingMax) >= 0);
+        boolean highestTaken = company == highestPriceCompany && Double.compare(max, highestPrice) < 0;
+        // A NaN hides the other prices of its window, so its extremes are not known
+        if (changingNaNs > 0 || nans > 0 || minTaken || maxTaken || highestTaken) {
+            extremesValid = false;
+            return;
+        }
+        if (count > 0) {
+            priceMin = Math.min(priceMin, min);
+            priceMax = Math.max(priceMax, max);
+        }
+        int compared = Double.compare(max, highestPrice);
+        if (compared > 0 || compared == 0 && position < numberIndex.get(highestPriceCompany.getCompanyNumber())) {
+            highestPriceCompany = company;
+            highestPrice = max;
+        }
+    }
+    /**
+     * Moves a company within the ranking index. Called by {@link ABCompany#setRanking(int)}.
+     */
+    void rankingChanged(ABCompany company) {
+        if (rankingIndex != null) {
+            rankingIndex.update(company, numberIndex.get(company.getCompanyNumber()));
+        }
+    }
+    /**
+     * Appends a share price tick to a company's rolling window.
+     *
+     * @param companyNumber the number of the company
+     * @param price         the new share price
+     * @return true if the company exists, false if the tick was dropped
+     */
+    public boolean addTick(int companyNumber, double price) {
+        int position = numberIndex.get(companyNumber);
+        if (position < 0) {
+            return false;
+        }
+        companies.get(position).addTick(price);
+        Metrics.increment(Metrics.Counter.TICKS);
+        return true;
+    }
+    /**
+     * Appends a batch of share price ticks, one per company number.
+     *
+     * @param companyNumbers the company number of each tick
+     * @param prices         the price of each tick
+     * @param count          the number of ticks to apply from the start of both arrays
+     * @return the number of ticks applied; ticks for unknown companies are dropped
+     */
+    public int addTicks(int[] companyNumbers, double[] prices, int count) {
+        int applied = 0;
+        for (int i = 0; i < count; i++) {
+            int position = numberIndex.get(companyNumbers[i]);
+            if (position >= 0) {
+                companies.get(position).addTick(prices[i]);
+                applied++;
+            }
+        }
+        Metrics.add(Metrics.Counter.TICKS, applied);
+        return applied;
+    }
+
+    /**
+     * Folds a newly added company into the running statistics. Companies are added in list
+     * order, so until a price changes the values match a full pass exactly.
+     */
+    private void accumulate(ABCompany company) {
+        for (double price : company.getSharePrices()) {
+            priceCount++;
+            if (Double.isNaN(price)) {
+                nanCount++;
+            } else {
+                priceSum += price;
+            }
+            priceMin = Math.min(priceMin, price);
+            priceMax = Math.max(priceMax, price);
+        }
+        if (!extremesValid) {
+            // The price heaps were updated by addCompany
+            return;
+        }
+        double companyMax = company.getMaxSharePrice();
+        if (highestPriceCompany == null || Double.compare(companyMax, highestPrice) > 0) {
+            highestPriceCompany = company;
+            highestPrice = companyMax;
+        }
     }
     /**
-     * Counts the number of companies that produce a given product or service.
+     * Counts the number of companies that produce a given product or service, ignoring case.
      *
      * @param productOrService The product or service to match against the companies.
      * @return The number of companies producing the specified product or service.
      */
     public long countCompaniesProducing(String productOrService) {
-        return companies.stream()
-                .filter(c -> c.getProductOrService().equalsIgnoreCase(productOrService))
-                .count();
+        return lookup(productIndex, productOrService).size();
+    }
+    /**
+     * Lists the companies that produce a given product or service, ignoring case.
+     *
+     * @param productOrService The product or service to match against the companies.
+     * @return The matching companies in the order they were added.
+     */
+    public List<ABCompany> getCompaniesProducing(String productOrService) {
+        return new ArrayList<>(lookup(productIndex, productOrService));
+    }
+    /**
+     * Counts the number of companies based in a given country, ignoring case.
+     *
+     * @param country The country to match against the companies.
+     * @return The number of companies based in the specified country.
+     */
+    public long countCompaniesInCountry(String country) {
+        return lookup(countryIndex, country).size();
+    }
+    /**
+     * Lists the companies based in a given country, ignoring case.
+     *
+     * @param country The country to match against the companies.
+     * @return The matching companies in the order they were added.
+     */
+    public List<ABCompany> getCompaniesInCountry(String country) {
+        return new ArrayList<>(lookup(countryIndex, country));
+    }
+    /**
+     * Finds the companies that produce any of the given products or services and are
+     * based in any of the given countries, for example "clothes OR groceries in UK".
+     * Matching ignores case. Only the smaller side of the filter is iterated, so the
+     * cost depends on the number of candidates rather than the size of the list.
+     *
+     * @param productsOrServices the accepted products or services, or null/empty for any
+     * @param countries          the accepted countries, or null/empty for any
+     * @return The matching companies in the order they were added.
+     */
+    public List<ABCompany> findCompanies(Collection<String> productsOrServices, Collection<String> countries) {
+        boolean anyProduct = productsOrServices == null || productsOrServices.isEmpty();
+        boolean anyCountry = countries == null || countries.isEmpty();
+        if (anyProduct && anyCountry) {
+            return new ArrayList<>(companies);
+        }
+        List<Set<ABCompany>> productSets = anyProduct ? null : lookupAll(productIndex, productsOrServices);
+        List<Set<ABCompany>> countrySets = anyCountry ? null : lookupAll(countryIndex, countries);
+
+        List<Set<ABCompany>> candidates;
+        List<Set<ABCompany>> filters;
+        if (anyCountry || (!anyProduct && totalSize(productSets) <= totalSize(countrySets))) {
+            candidates = productSets;
+            filters = countrySets;
+        } else {
+            candidates = countrySets;
+            filters = productSets;
+        }
+        List<ABCompany> result = new ArrayList<>();
+        for (Set<ABCompany> candidateSet : candidates) {
+            for (ABCompany company : candidateSet) {
+                if (filters == null || containsAny(filters, company)) {
+                    result.add(company);
+                }
+            }
+        }
+        // Each company is indexed under one key per attribute, so the union has no duplicates
+        result.sort(Comparator.comparingInt(c -> numberIndex.get(c.getCompanyNumber())));
+        return result;
+    }
+
+    private static List<Set<ABCompany>> lookupAll(List<Set<ABCompany>> index, Collection<String> values) {
+        Set<Integer> keys = new LinkedHashSet<>();
+        for (String value : values) {
+            keys.add(StringDictionary.SHARED.findFoldedCode(value));
+        }
+        List<Set<ABCompany>> sets = new ArrayList<>(keys.size());
+        for (int key : keys) {
+            Set<ABCompany> matches = get(index, key);
+            if (matches != null) {
+                sets.add(matches);
+            }
+        }
+        return sets;
+    }
+
+    private static long totalSize(List<Set<ABCompany>> sets) {
+        long total = 0;
+        for (Set<ABCompany> set : sets) {
+            total += set.size();
+        }
+        return total;
+    }
+
+    private static boolean containsAny(List<Set<ABCompany>> sets, ABCompany company) {
+        for (Set<ABCompany> set : sets) {
+            if (set.contains(company)) {
+                return true;
+            }
+        }
+        return false;
     }
     /**
      * Creates a frequency map of share prices, showing how many companies have each share price.
+     * Prices are rounded to whole cents, so prices that only differ beyond two decimals are counted together.
+     * NaN and infinite prices are each counted under their own key.
      *
-     * @return A {@code Map<Double, Long>} where the key is the share price and the value is the frequency.
+     * @return A {@code Map<Double, Long>} where the key is the share price and the value is the frequency,
+     *         in ascending price order with NaN last.
      */
     public Map<Double, Long> getSharePriceFrequency() {
-        return companies.stream()
-                .flatMapToDouble(c -> Arrays.stream(c.getSharePrices()))
-                .boxed()
-                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+        return getSharePriceHistogram().toMap();
     }
     /**
-     * Retrieves a company by its company number.
+     * Counts every share price in a primitive fixed-point histogram with one bucket per cent.
+     *
+     * @return the histogram of all share prices
+     */
+    public PriceHistogram getSharePriceHistogram() {
+        return getSharePriceHistogram(1);
+    }
+    /**
+     * Counts every share price in a primitive fixed-point histogram.
+     *
+     * @param bucketWidthCents the width of each bucket in cents
+     * @return the histogram of all share prices
+     */
+    public PriceHistogram getSharePriceHistogram(long bucketWidthCents) {
+        long start = Metrics.start();
+        PriceHistogram histogram = new PriceHistogram(bucketWidthCents);
+        for (ABCompany company : companies) {
+            histogram.addAll(company.getSharePrices());
+        }
+        Metrics.increment(Metrics.Counter.SCANS);
+        Metrics.record(Metrics.Phase.SCAN, start, companies.size());
+        return histogram;
+    }
+    /**
+     * Retrieves a company by its company number using the primary index.
      *
      * @param companyNumber The number to search for.
      * @return The {@code ABCompany} with the corresponding number, or null if not found.
      */
     public ABCompany getCompanyByNumber(int companyNumber) {
-        return companies.stream()
-                .filter(c -> c.getCompanyNumber() == companyNumber)
-                .findFirst()
-                .orElse(null);
+        int position = numberIndex.get(companyNumber);
+        return position >= 0 ? companies.get(position) : null;
+    }
+    /**
+     * Finds the position of a company in the list using the primary index. The lookup
+     * never throws, even while another thread adds a company, although a read racing a
+     * writer may then return a wrong position.
+     *
+     * @param companyNumber The number to search for.
+     * @return The position of the company, or -1 if not found.
+     */
+    int indexOf(int companyNumber) {
+        return numberIndex.get(companyNumber);
     }
     
 }
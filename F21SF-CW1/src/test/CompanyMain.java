@@ -19,11 +19,11 @@ public class CompanyMain {
 	        double[] sharePrices4 = {117, 113, 114, 110, 119};
 	        double[] sharePrices5 = {484, 467, 466, 463, 467};
 	        
-	        ABCompany company1 = new ABCompany(1, "Marks & Spencer Group PLC", new String("clothes"), 1, "Country : UK", sharePrices1);
-	        ABCompany company2 = new ABCompany(2, "J Sainsbury PLC", new String("groceries"), 2, "Country : UK", sharePrices2);
-	        ABCompany company3 = new ABCompany(3, "Kingfisher plc", new String("Betting operators"), 3, "Country : Ireland", sharePrices3);
-	        ABCompany company4 = new ABCompany(4, "Airtel Africa plc", new String("telecommunications"), 4, "Country : India", sharePrices4);
-	        ABCompany company5 = new ABCompany(5, "MELROSE INDUSTRIES PLC", new String("Industrial Goods"), 5, "Country : UK", sharePrices5);
+	        ABCompany company1 = new ABCompany(1, "Marks & Spencer Group PLC", "clothes", 1, "Country : UK", sharePrices1);
+	        ABCompany company2 = new ABCompany(2, "J Sainsbury PLC", "groceries", 2, "Country : UK", sharePrices2);
+	        ABCompany company3 = new ABCompany(3, "Kingfisher plc", "Betting operators", 3, "Country : Ireland", sharePrices3);
+	        ABCompany company4 = new ABCompany(4, "Airtel Africa plc", "telecommunications", 4, "Country : India", sharePrices4);
+	        ABCompany company5 = new ABCompany(5, "MELROSE INDUSTRIES PLC", "Industrial Goods", 5, "Country : UK", sharePrices5);
 	    
 	        System.out.println(company1.getFullDetails());
 	        System.out.println(company1.getShortDetails());
@@ -0,0 +1,307 @@
+package test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * CompanyServer keeps a loaded {@link CompanyList} in memory and answers queries
+ * against it over HTTP, so repeated queries do not re-read the input file. It is
+ * built on the JDK's {@code com.sun.net.httpserver} and returns JSON:
+ * <pre>
+ * GET /companies/{number}          one company, or 404
+ * GET /count?productOrService=...  number of companies producing a product or service
+ * GET /count?country=...           number of companies based in a country
+ * GET /statistics                  count, sum, min, max and average share price
+ * GET /histogram[?bucketCents=N]   share price frequencies, lowest price first
+ * </pre>
+ * Each request runs on its own virtual thread when the JVM provides them (Java 21
+ * and later). On older JVMs a fixed pool of platform threads is used instead.
+ * <p>
+ * The list must not be changed while the server is running. The statistics and the
+ * one-cent histogram are rendered once at start-up, and other histograms the first
+ * time they are asked for, and then served from memory.
+ * <p>
+ * Launch the JVM with {@code -Dsun.net.httpserver.nodelay=true}. Without it small
+ * responses wait for the client's delayed ACK, which caps each keep-alive connection
+ * at about 25 requests per second. The JDK reads the property once, when the first
+ * server is created, so it cannot be changed per server. {@code Manager serve} sets it
+ * unless it was given on the command line.
+ */
+public class CompanyServer {
+    private static final int BACKLOG = 4096;
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final int MAX_CACHED_HISTOGRAMS = 16;
+
+    private final CompanyList companyList;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] statistics;
+    /** Rendered histograms by bucket width; at most {@link #MAX_CACHED_HISTOGRAMS} are kept. */
+    private final ConcurrentHashMap<Long, byte[]> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a server for a loaded list. The server does not accept requests until
+     * {@link #start()} is called.
+     *
+     * @param companyList the companies to serve
+     * @param address     the address to listen on; port 0 picks a free port
+     * @throws IOException if the address cannot be bound
+     */
+    public CompanyServer(CompanyList companyList, InetSocketAddress address) throws IOException {
+        this.companyList = companyList;
+        this.statistics = utf8(statisticsJson(companyList.getSharePriceStatistics()));
+        histograms.put(1L, utf8(histogramJson(companyList.getSharePriceHistogram(), 1)));
+        this.executor = newRequestExecutor();
+        this.server = HttpServer.create(address, BACKLOG);
+        server.setExecutor(executor);
+        server.createContext("/companies/", handler(this::company));
+        server.createContext("/count", handler(this::count));
+        server.createContext("/statistics", handler(exchange -> send(exchange, 200, statistics)));
+        server.createContext("/histogram", handler(this::histogram));
+    }
+
+    /**
+     * Starts accepting requests in the background.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting up to the given time for requests in progress.
+     *
+     * @param delaySeconds the longest time to wait for requests in progress
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Creates the executor that runs each request. Virtual threads are looked up
+     * reflectively so the code still compiles and runs on Java 17.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(8, 4 * Runtime.getRuntime().availableProcessors()));
+        }
+    }
+
+    private void company(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String number = path.substring(path.lastIndexOf('/') + 1);
+        int companyNumber;
+        try {
+            companyNumber = Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "invalid company number: " + number);
+            return;
+        }
+        ABCompany company = companyList.getCompanyByNumber(companyNumber);
+        Metrics.increment(Metrics.Counter.LOOKUPS);
+        if (company == null) {
+            sendError(exchange, 404, "company " + companyNumber + " not found");
+            return;
+        }
+        send(exchange, 200, utf8(companyJson(company)));
+    }
+
+    private void count(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI());
+        StringBuilder json = new StringBuilder(64).append('{');
+        if (query.containsKey("productOrService")) {
+            String product = query.get("productOrService");
+            field(json, "productOrService").append(quote(product)).append(',');
+            field(json, "count").append(companyList.countCompaniesProducing(product));
+        } else if (query.containsKey("country")) {
+            String country = query.get("country");
+            field(json, "country").append(quote(country)).append(',');
+            field(json, "count").append(companyList.countCompaniesInCountry(country));
+        } else {
+            sendError(exchange, 400, "expected a productOrService or country parameter");
+            return;
+        }
+        Metrics.increment(Metrics.Counter.LOOKUPS);
+        send(exchange, 200, utf8(json.append('}').toString()));
+    }
+
+    private void histogram(HttpExchange exchange) throws IOException {
+        String bucket = parseQuery(exchange.getRequestURI()).get("bucketCents");
+        long bucketWidthCents;
+        try {
+            bucketWidthCents = bucket == null ? 1 : Long.parseLong(bucket);
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "invalid bucketCents: " + bucket);
+            return;
+        }
+        if (bucketWidthCents < 1) {
+            sendError(exchange, 400, "bucketCents must be at least 1");
+            return;
+        }
+        byte[] body = histograms.get(bucketWidthCents);
+        if (body == null) {
+            body = utf8(histogramJson(companyList.getSharePriceHistogram(bucketWidthCents), bucketWidthCents));
+            if (histograms.size() < MAX_CACHED_HISTOGRAMS) {
+                histograms.putIfAbsent(bucketWidthCents, body);
+            }
+        }
+        send(exchange, 200, body);
+    }
+
+    static String companyJson(ABCompany company) {
+        StringBuilder json = new StringBuilder(256).append('{');
+        field(json, "companyNumber").append(company.getCompanyNumber()).append(',');
+        field(json, "companyName").append(quote(company.getCompanyName())).append(',');
+        field(json, "productOrService").append(quote(company.getProductOrService())).append(',');
+        field(json, "ranking").append(company.getRanking()).append(',');
+        field(json, "country").append(quote(company.getCountry())).append(',');
+        field(json, "sharePrices").append('[');
+        double[] prices = company.getSharePrices();
+        for (int i = 0; i < prices.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            number(json, prices[i]);
+        }
+        json.append("],");
+        number(field(json, "averageSharePrice"), company.getAverageSharePrice()).append(',');
+        number(field(json, "minSharePrice"), company.getMinSharePrice()).append(',');
+        number(field(json, "maxSharePrice"), company.getMaxSharePrice());
+        return json.append('}').toString();
+    }
+
+    static String statisticsJson(double[] statistics) {
+        StringBuilder json = new StringBuilder(128).append('{');
+        field(json, "count").append((long) statistics[0]).append(',');
+        number(field(json, "sum"), statistics[1]).append(',');
+        number(field(json, "min"), statistics[2]).append(',');
+        number(field(json, "max"), statistics[3]).append(',');
+        number(field(json, "average"), statistics[0] > 0 ? statistics[1] / statistics[0] : Double.NaN);
+        return json.append('}').toString();
+    }
+
+    static String histogramJson(PriceHistogram histogram, long bucketWidthCents) {
+        StringBuilder json = new StringBuilder(32 + histogram.size() * 32).append('{');
+        field(json, "bucketWidthCents").append(bucketWidthCents).append(',');
+        // JSON has no NaN or infinity to key a bucket with, so those prices are only counted
+        field(json, "nonFiniteCount").append(histogram.getNonFiniteCount()).append(',');
+        field(json, "buckets").append('[');
+        histogram.forEachSorted((bucketStartCents, count) -> {
+            if (json.charAt(json.length() - 1) != '[') {
+                json.append(',');
+            }
+            json.append('{');
+            number(field(json, "price"), bucketStartCents / 100.0).append(',');
+            field(json, "count").append(count).append('}');
+        });
+        return json.append("]}").toString();
+    }
+
+    private static StringBuilder field(StringBuilder json, String name) {
+        return json.append('"').append(name).append("\":");
+    }
+
+    /** JSON has no NaN or infinity, so they are written as null. */
+    private static StringBuilder number(StringBuilder json, double value) {
+        return Double.isFinite(value) ? json.append(value) : json.append("null");
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static Map<String, String> parseQuery(URI uri) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = uri.getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, utf8("{\"error\":" + quote(message) + "}"));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Wraps a handler so that only GET is accepted and every exchange is closed. */
+    private static HttpHandler handler(HttpHandler handler) {
+        return exchange -> {
+            Metrics.increment(Metrics.Counter.QUERIES);
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().set("Allow", "GET");
+                    sendError(exchange, 405, "only GET is supported");
+                } else {
+                    handler.handle(exchange);
+                }
+            } catch (RuntimeException e) {
+                // The details stay in the server's log rather than going to the client
+                System.err.println("Failed to handle " + exchange.getRequestMethod() + " " + exchange.getRequestURI());
+                e.printStackTrace();
+                // Once the headers are sent the status can no longer change, so just close the exchange
+                if (exchange.getResponseCode() == -1) {
+                    sendError(exchange, 500, "internal server error");
+                }
+            } finally {
+                exchange.close();
+            }
+        };
+    }
+}
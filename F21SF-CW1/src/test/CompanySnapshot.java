@@ -0,0 +1,319 @@
+package test;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * CompanySnapshot stores a loaded {@link CompanyList} in a compact binary file so
+ * later runs can skip parsing the text input. The file holds a header, a string
+ * dictionary shared by names, products and countries, fixed-width int columns for
+ * numbers, rankings and dictionary codes, and one packed array of every price.
+ * <p>
+ * The header records the size and modification time of the source file, and a
+ * CRC-32 of everything after the header. A snapshot is only used when both match;
+ * otherwise {@link #load(Path, Path, CompanyList)} parses the source again and
+ * rewrites it.
+ * <pre>
+ * header:  magic, version, source size, source mtime, company count, price count,
+ *          dictionary size, payload length, payload CRC-32
+ * payload: dictionary (length-prefixed UTF-8 strings),
+ *          numbers[n], rankings[n], nameCodes[n], productCodes[n], countryCodes[n],
+ *          priceOffsets[n + 1], prices[priceCount]
+ * </pre>
+ */
+public class CompanySnapshot {
+    private static final int MAGIC = 0x41424353; // "ABCS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 8 + 8;
+    /** Dictionary code for a null text field. */
+    private static final int NULL_CODE = -1;
+
+    private CompanySnapshot() {
+    }
+
+    /**
+     * Loads companies into a list from a snapshot if it is up to date with the source
+     * file, or else from the source file, writing a new snapshot afterwards. The
+     * snapshot records the size and modification time the source had before it was
+     * parsed, so a source changed during the parse leaves a stale snapshot. Failing to
+     * write the snapshot is reported on standard error and does not fail the load.
+     *
+     * @param source      the text input file
+     * @param snapshot    the snapshot file
+     * @param companyList the list to load companies into
+     * @return true if the snapshot was used, false if the source was parsed
+     * @throws IOException if the source cannot be read
+     */
+    public static boolean load(Path source, Path snapshot, CompanyList companyList) throws IOException {
+        if (isFresh(snapshot, source)) {
+            try {
+                read(snapshot, companyList);
+                return true;
+            } catch (IOException e) {
+                // Companies are only added once the whole snapshot has decoded, so a damaged
+                // snapshot leaves the list untouched and is rebuilt from the source below
+            }
+        }
+        long sourceSize = Files.size(source);
+        long sourceModified = Files.getLastModifiedTime(source).toMillis();
+        List<ABCompany> parsed = new ArrayList<>();
+        new MappedFileReader((number, name, product, ranking, country, prices, count) -> {
+            ABCompany company = new ABCompany(number, name, product, ranking, country, Arrays.copyOf(prices, count));
+            companyList.addCompany(company);
+            parsed.add(company);
+        }).read(source);
+        try {
+            write(parsed, snapshot, sourceSize, sourceModified);
+        } catch (IOException e) {
+            // The companies are already loaded; the next run parses the source again
+            System.err.println("Could not write snapshot " + snapshot + ": " + e);
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a snapshot exists, has the current format and was written from
+     * the source file as it is now. The checksum is not verified here.
+     *
+     * @param snapshot the snapshot file
+     * @param source   the text input file
+     * @return true if the snapshot can be used in place of the source
+     */
+    public static boolean isFresh(Path snapshot, Path source) {
+        if (!Files.isRegularFile(snapshot) || !Files.isRegularFile(source)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            if (header.hasRemaining()) {
+                return false;
+            }
+            header.flip();
+            return header.getInt() == MAGIC
+                    && header.getInt() == VERSION
+                    && header.getLong() == Files.size(source)
+                    && header.getLong() == Files.getLastModifiedTime(source).toMillis();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a snapshot of a list. The file is written under a temporary name and
+     * moved into place, so readers never see a partial snapshot. The size and
+     * modification time of the source are read now, so the list must match the
+     * source as it is at the time of the call.
+     *
+     * @param companyList the list to store
+     * @param snapshot    the snapshot file to write
+     * @param source      the text input file the list was loaded from
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(CompanyList companyList, Path snapshot, Path source) throws IOException {
+        write(companyList.getCompanies(), snapshot, Files.size(source), Files.getLastModifiedTime(source).toMillis());
+    }
+
+    private static void write(List<ABCompany> companies, Path snapshot, long sourceSize, long sourceModified)
+            throws IOException {
+        Map<String, Integer> codes = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        int[] nameCodes = new int[companies.size()];
+        int[] productCodes = new int[companies.size()];
+        int[] countryCodes = new int[companies.size()];
+        int priceCount = 0;
+        for (int i = 0; i < companies.size(); i++) {
+            ABCompany company = companies.get(i);
+            nameCodes[i] = encode(company.getCompanyName(), codes, dictionary);
+            productCodes[i] = encode(company.getProductOrService(), codes, dictionary);
+            countryCodes[i] = encode(company.getCountry(), codes, dictionary);
+            priceCount = Math.addExact(priceCount, company.getSharePrices().length);
+        }
+
+        Path temp = Files.createTempFile(snapshot.toAbsolutePath().getParent(), snapshot.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.write(new byte[HEADER_BYTES]); // filled in once the checksum is known
+                for (String value : dictionary) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                for (ABCompany company : companies) {
+                    out.writeInt(company.getCompanyNumber());
+                }
+                for (ABCompany company : companies) {
+                    out.writeInt(company.getRanking());
+                }
+                writeInts(out, nameCodes);
+                writeInts(out, productCodes);
+                writeInts(out, countryCodes);
+                int offset = 0;
+                out.writeInt(offset);
+                for (ABCompany company : companies) {
+                    offset += company.getSharePrices().length;
+                    out.writeInt(offset);
+                }
+                for (ABCompany company : companies) {
+                    for (double price : company.getSharePrices()) {
+                        out.writeDouble(price);
+                    }
+                }
+            }
+            long payloadLength = Files.size(temp) - HEADER_BYTES;
+            long checksum = checksum(temp, payloadLength);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(sourceSize)
+                    .putLong(sourceModified)
+                    .putInt(companies.size())
+                    .putInt(priceCount)
+                    .putInt(dictionary.size())
+                    .putLong(payloadLength)
+                    .putLong(checksum)
+                    .flip();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            }
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Maps a snapshot, verifies its checksum and adds every company in it to a list.
+     * The companies are decoded first and added together, so the list is only changed
+     * if the whole snapshot is readable. Every company is still created and indexed
+     * here, so opening a snapshot skips the text parsing but takes time in proportion
+     * to the number of companies.
+     *
+     * @param snapshot    the snapshot file
+     * @param companyList the list to load companies into
+     * @return the number of companies read
+     * @throws IOException if the snapshot cannot be read, has the wrong format or fails its checksum
+     */
+    public static int read(Path snapshot, CompanyList companyList) throws IOException {
+        long start = Metrics.start();
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + snapshot + " has an unsupported size: " + size);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Snapshot " + snapshot + " has an unknown format");
+            }
+            buffer.getLong(); // source size
+            buffer.getLong(); // source mtime
+            int companyCount = buffer.getInt();
+            int priceCount = buffer.getInt();
+            int dictionarySize = buffer.getInt();
+            long payloadLength = buffer.getLong();
+            long checksum = buffer.getLong();
+            if (payloadLength != size - HEADER_BYTES) {
+                throw new IOException("Snapshot " + snapshot + " is truncated");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if (crc.getValue() != checksum) {
+                throw new IOException("Snapshot " + snapshot + " failed its checksum");
+            }
+
+            String[] dictionary = new String[dictionarySize];
+            byte[] scratch = new byte[64];
+            for (int i = 0; i < dictionarySize; i++) {
+                int length = buffer.getInt();
+                if (length > scratch.length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                buffer.get(scratch, 0, length);
+                dictionary[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+            int numbers = buffer.position();
+            if (numbers + (6L * companyCount + 1) * Integer.BYTES + (long) priceCount * Double.BYTES != size) {
+                throw new IOException("Snapshot " + snapshot + " has inconsistent column sizes");
+            }
+            int rankings = numbers + companyCount * Integer.BYTES;
+            int nameCodes = rankings + companyCount * Integer.BYTES;
+            int productCodes = nameCodes + companyCount * Integer.BYTES;
+            int countryCodes = productCodes + companyCount * Integer.BYTES;
+            int priceOffsets = countryCodes + companyCount * Integer.BYTES;
+            int prices = priceOffsets + (companyCount + 1) * Integer.BYTES;
+            List<ABCompany> companies = new ArrayList<>(companyCount);
+            for (int i = 0; i < companyCount; i++) {
+                int offset = i * Integer.BYTES;
+                int priceStart = buffer.getInt(priceOffsets + offset);
+                double[] sharePrices = new double[buffer.getInt(priceOffsets + offset + Integer.BYTES) - priceStart];
+                for (int p = 0; p < sharePrices.length; p++) {
+                    sharePrices[p] = buffer.getDouble(prices + (priceStart + p) * Double.BYTES);
+                }
+                companies.add(new ABCompany(
+                        buffer.getInt(numbers + offset),
+                        decode(dictionary, buffer.getInt(nameCodes + offset)),
+                        decode(dictionary, buffer.getInt(productCodes + offset)),
+                        buffer.getInt(rankings + offset),
+                        decode(dictionary, buffer.getInt(countryCodes + offset)),
+                        sharePrices));
+            }
+            companyList.addAll(companies);
+            Metrics.add(Metrics.Counter.BYTES_READ, size);
+            Metrics.record(Metrics.Phase.SNAPSHOT, start, companyCount);
+            return companyCount;
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IOException("Snapshot " + snapshot + " is corrupt", e);
+        }
+    }
+
+    private static int encode(String value, Map<String, Integer> codes, List<String> dictionary) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        return codes.computeIfAbsent(value, v -> {
+            dictionary.add(v);
+            return dictionary.size() - 1;
+        });
+    }
+
+    private static String decode(String[] dictionary, int code) {
+        return code == NULL_CODE ? null : dictionary[code];
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static long checksum(Path file, long payloadLength) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            if (payloadLength > 0) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, payloadLength));
+            }
+            return crc.getValue();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * ConcurrentCompanyList is a thread-safe {@link CompanyList} for workloads that load
+ * companies and apply price ticks while other threads query the data.
+ * <p>
+ * Writers are serialised by the write mode of a {@link StampedLock}. Lookups use
+ * optimistic reads: they run without taking the lock, then validate the stamp and
+ * only retry under the read lock if a writer got in the way, so they never block
+ * writers. Every write publishes the share price statistics as an immutable snapshot
+ * in a volatile field before releasing the lock, so reading them, or the size, is a
+ * single volatile load and never waits for a writer.
+ */
+public class ConcurrentCompanyList {
+    /**
+     * Immutable share price statistics for one version of the list.
+     */
+    public static final class Statistics {
+        private final long version;
+        private final int companyCount;
+        private final double[] values;
+
+        private Statistics(long version, int companyCount, double[] values) {
+            this.version = version;
+            this.companyCount = companyCount;
+            this.values = values;
+        }
+
+        /**
+         * @return the number of writes included in the snapshot; later snapshots have higher versions
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        public int getCompanyCount() {
+            return companyCount;
+        }
+
+        public long getPriceCount() {
+            return (long) values[0];
+        }
+
+        public double getSum() {
+            return values[1];
+        }
+
+        public double getMin() {
+            return values[2];
+        }
+
+        public double getMax() {
+            return values[3];
+        }
+
+        public double getAverage() {
+            return values[0] > 0 ? values[1] / values[0] : Double.NaN;
+        }
+    }
+
+    private final CompanyList companyList = new CompanyList();
+    private final StampedLock lock = new StampedLock();
+    /**
+     * The companies by their position in {@link #companyList}, for optimistic lookups.
+     * Written under the write lock and replaced whole when it grows.
+     */
+    private ABCompany[] byPosition = new ABCompany[16];
+    private volatile int size;
+    /** Incremented by every write, under the write lock. */
+    private long version;
+    private volatile Statistics statistics = new Statistics(0, 0, companyList.getSharePriceStatistics());
+
+    /**
+     * Adds a company to the list.
+     *
+     * @param company the {@code ABCompany} to be added to the list
+     * @throws IllegalArgumentException if a company with the same number is already in the list
+     */
+    public void addCompany(ABCompany company) {
+        long stamp = lock.writeLock();
+        try {
+            companyList.addCompany(company);
+            int position = size;
+            if (position == byPosition.length) {
+                byPosition = Arrays.copyOf(byPosition, position * 2);
+            }
+            byPosition[position] = company;
+            size = position + 1;
+            version++;
+            publishStatistics();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Appends a share price tick to a company's rolling window.
+     *
+     * @param companyNumber the number of the company
+     * @param price         the new share price
+     * @return true if the company exists, false if the tick was dropped
+     */
+    public boolean addTick(int companyNumber, double price) {
+        long stamp = lock.writeLock();
+        try {
+            boolean applied = companyList.addTick(companyNumber, price);
+            if (applied) {
+                version++;
+                publishStatistics();
+            }
+            return applied;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Appends a batch of share price ticks under one acquisition of the write lock.
+     *
+     * @param companyNumbers the company number of each tick
+     * @param prices         the price of each tick
+     * @param count          the number of ticks to apply from the start of both arrays
+     * @return the number of ticks applied
+     */
+    public int addTicks(int[] companyNumbers, double[] prices, int count) {
+        long stamp = lock.writeLock();
+        try {
+            int applied = companyList.addTicks(companyNumbers, prices, count);
+            if (applied > 0) {
+                version++;
+                publishStatistics();
+            }
+            return applied;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Retrieves a copy of a company by its company number. The mutators of the list's
+     * own companies do not take the lock, so callers only ever see copies; changing a
+     * copy does not change the list.
+     *
+     * @param companyNumber The number to search for.
+     * @return A copy of the {@code ABCompany} with the corresponding number, or null if not found.
+     */
+    public ABCompany getCompanyByNumber(int companyNumber) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            // A copy taken while a tick lands may be torn, but then the stamp fails to validate
+            ABCompany company = copy(find(companyNumber));
+            if (lock.validate(stamp)) {
+                return company;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return copy(find(companyNumber));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Counts the number of companies that produce a given product or service, ignoring case.
+     *
+     * @param productOrService The product or service to match against the companies.
+     * @return The number of companies producing the specified product or service.
+     */
+    public long countCompaniesProducing(String productOrService) {
+        // The product index is a list of sets keyed by dictionary code, which a concurrent
+        // append can grow or rehash, so this takes the read lock instead of reading optimistically
+        long stamp = lock.readLock();
+        try {
+            return companyList.countCompaniesProducing(productOrService);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Retrieves the number of companies in the list.
+     *
+     * @return the number of companies
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copies the companies in the list at this moment. Like
+     * {@link #getCompanyByNumber(int)}, every company in the snapshot is a copy.
+     *
+     * @return an immutable snapshot of the companies, in the order they were added
+     */
+    public List<ABCompany> getCompanies() {
+        long stamp = lock.readLock();
+        try {
+            List<ABCompany> companies = companyList.getCompanies();
+            ABCompany[] copies = new ABCompany[companies.size()];
+            for (int i = 0; i < copies.length; i++) {
+                copies[i] = copy(companies.get(i));
+            }
+            return List.of(copies);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Retrieves consistent share price statistics for the latest completed write.
+     *
+     * @return the statistics snapshot
+     */
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Calculates statistical information about share prices including count, sum, min, and max.
+     *
+     * @return An array of doubles containing the count, sum, minimum, and maximum share price values.
+     */
+    public double[] getSharePriceStatistics() {
+        return getStatistics().values.clone();
+    }
+
+    public double getAverageSharePrice() {
+        return getStatistics().getAverage();
+    }
+
+    public double getMinSharePrice() {
+        return getStatistics().getMin();
+    }
+
+    public double getMaxSharePrice() {
+        return getStatistics().getMax();
+    }
+
+    /**
+     * Looks up a company without taking the lock. The index and the array are each read
+     * once and bounds-checked, so a lookup racing a writer cannot throw; it may return a
+     * wrong company, which the caller's stamp validation rejects.
+     */
+    private ABCompany find(int companyNumber) {
+        int position = companyList.indexOf(companyNumber);
+        ABCompany[] companies = byPosition;
+        return position >= 0 && position < companies.length ? companies[position] : null;
+    }
+
+    private static ABCompany copy(ABCompany company) {
+        return company == null ? null : new ABCompany(company.getCompanyNumber(), company.getCompanyName(),
+                company.getProductOrService(), company.getRanking(), company.getCountry(), company.getSharePrices());
+    }
+
+    /** Must be called with the write lock held. CompanyList keeps the aggregates current, so this is O(1). */
+    private void publishStatistics() {
+        statistics = new Statistics(version, size, companyList.getSharePriceStatistics());
+    }
+}
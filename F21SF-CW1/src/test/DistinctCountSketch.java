@@ -0,0 +1,171 @@
+package test;
+
+/**
+ * DistinctCountSketch estimates the number of distinct values in a stream with a
+ * HyperLogLog sketch. Each value is hashed to 64 bits; the top {@code p} bits pick one
+ * of {@code 2^p} registers and the register keeps the longest run of leading zeros
+ * seen in the remaining bits. The estimate uses Ertl's improved estimator, which needs
+ * no bias tables and stays accurate from a handful of values up to billions.
+ * <p>
+ * Error bounds: the relative standard error is {@code 1.04 / sqrt(2^p)}, so with the
+ * default precision of 14 (16 KB of registers) the estimate is within 0.81% of the
+ * true count about two times in three and within 2.5% almost always. Memory does not
+ * grow with the stream.
+ * <p>
+ * Values are compared by their double value, so 0.0 and -0.0 count as one value, and
+ * every NaN counts as the same value. Sketches with the same precision can be merged,
+ * and merging gives exactly the sketch of the combined stream. A sketch is not
+ * thread-safe.
+ */
+public class DistinctCountSketch {
+    public static final int DEFAULT_PRECISION = 14;
+    private static final int MIN_PRECISION = 4;
+    private static final int MAX_PRECISION = 18;
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * Creates a sketch with {@link #DEFAULT_PRECISION}.
+     */
+    public DistinctCountSketch() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates a sketch.
+     *
+     * @param precision the number of hash bits used to pick a register, between 4 and
+     *                  18; each extra bit doubles the memory and divides the error by
+     *                  the square root of two
+     */
+    public DistinctCountSketch(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION
+                    + " and " + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Adds one value.
+     *
+     * @param value the value to add
+     */
+    public void add(double value) {
+        // Adding 0.0 turns -0.0 into 0.0 so both hash alike
+        long hash = mix(Double.doubleToLongBits(value + 0.0));
+        int register = (int) (hash >>> (Long.SIZE - precision));
+        // The marker bit caps the run at the number of bits left after the register index
+        byte run = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+        if (run > registers[register]) {
+            registers[register] = run;
+        }
+    }
+
+    /**
+     * Adds every value in an array.
+     *
+     * @param values the values to add
+     */
+    public void addAll(double[] values) {
+        for (double value : values) {
+            add(value);
+        }
+    }
+
+    /**
+     * Folds another sketch into this one. The other sketch is not changed.
+     *
+     * @param other a sketch with the same precision
+     * @throws IllegalArgumentException if the sketches have different precisions
+     */
+    public void merge(DistinctCountSketch other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge sketches with precision " + precision
+                    + " and " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * Estimates the number of distinct values added.
+     *
+     * @return the estimated count, 0 if nothing was added
+     */
+    public long getEstimate() {
+        int m = registers.length;
+        int maxRun = Long.SIZE - precision + 1;
+        int[] histogram = new int[maxRun + 1];
+        for (byte run : registers) {
+            histogram[run]++;
+        }
+        if (histogram[0] == m) {
+            return 0;
+        }
+        double z = m * tau(1 - (double) histogram[maxRun] / m);
+        for (int run = maxRun - 1; run >= 1; run--) {
+            z = 0.5 * (z + histogram[run]);
+        }
+        z += m * sigma((double) histogram[0] / m);
+        return Math.round(m / (2 * Math.log(2)) * m / z);
+    }
+
+    /**
+     * @return the relative standard error of {@link #getEstimate()}
+     */
+    public double getRelativeStandardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double y = 1;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double y = 1;
+        double z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+        return z / 3;
+    }
+
+    /** The 64-bit finaliser of MurmurHash3, which spreads nearby prices over every bit. */
+    private static long mix(long bits) {
+        bits ^= bits >>> 33;
+        bits *= 0xff51afd7ed558ccdL;
+        bits ^= bits >>> 33;
+        bits *= 0xc4ceb9fe1a85ec53L;
+        bits ^= bits >>> 33;
+        return bits;
+    }
+}
@@ -0,0 +1,283 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * GroupByAggregator computes share price statistics per group of companies, grouped
+ * by country, product or service, or ranking band. Each group gets its company count,
+ * price count, sum, average, minimum, maximum and spread.
+ * <p>
+ * The list is split into chunks that are aggregated on a fork-join pool, each into its
+ * own partial result, and the partial results are merged pairwise as the tasks join.
+ * Countries and products are grouped by their folded {@link StringDictionary} codes,
+ * so grouping ignores case and only compares ints. The chunks and the merge order
+ * depend only on the size of the list, so the results, including floating point sums,
+ * are the same whatever the number of threads.
+ */
+public class GroupByAggregator {
+    /** The attribute companies are grouped by. */
+    public enum GroupKey {
+        COUNTRY("Country"),
+        PRODUCT_OR_SERVICE("Product/Service"),
+        RANKING_BAND("Ranking Band");
+
+        private final String label;
+
+        GroupKey(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return the name of the attribute, for report headings
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /** Number of companies below which a chunk is aggregated without splitting further. */
+    private static final int CHUNK_SIZE = 1 << 14;
+    public static final int DEFAULT_RANKING_BAND_WIDTH = 10;
+
+    private final ForkJoinPool pool;
+    private final int rankingBandWidth;
+
+    /**
+     * Creates an aggregator that runs on the common fork-join pool with ranking bands
+     * of {@link #DEFAULT_RANKING_BAND_WIDTH}.
+     */
+    public GroupByAggregator() {
+        this(ForkJoinPool.commonPool(), DEFAULT_RANKING_BAND_WIDTH);
+    }
+
+    /**
+     * Creates an aggregator.
+     *
+     * @param pool             the pool that runs the aggregation
+     * @param rankingBandWidth the number of rankings in each band; band {@code b} holds
+     *                         rankings {@code b * width + 1} to {@code (b + 1) * width}
+     */
+    public GroupByAggregator(ForkJoinPool pool, int rankingBandWidth) {
+        if (rankingBandWidth < 1) {
+            throw new IllegalArgumentException("rankingBandWidth must be at least 1: " + rankingBandWidth);
+        }
+        this.pool = pool;
+        this.rankingBandWidth = rankingBandWidth;
+    }
+
+    /**
+     * Aggregates every company in a list.
+     *
+     * @param companyList the companies to aggregate
+     * @param key         the attribute to group by
+     * @return one entry per group, in ascending band order for ranking bands and in
+     *         case-insensitive name order otherwise; companies with no value for the
+     *         attribute form a group with a null label
+     */
+    public List<GroupStatistics> aggregate(CompanyList companyList, GroupKey key) {
+        return aggregate(companyList.getCompanies(), key);
+    }
+
+    /**
+     * Aggregates a list of companies.
+     *
+     * @param companies the companies to aggregate
+     * @param key       the attribute to group by
+     * @return one entry per group, ordered as for {@link #aggregate(CompanyList, GroupKey)}
+     */
+    public List<GroupStatistics> aggregate(List<ABCompany> companies, GroupKey key) {
+        long start = Metrics.start();
+        if (!(companies instanceof RandomAccess)) {
+            companies = new ArrayList<>(companies);
+        }
+        Partial result = pool.invoke(new ChunkTask(companies, key, 0, companies.size()));
+        List<GroupStatistics> groups = result.groups;
+        if (key == GroupKey.RANKING_BAND) {
+            groups.sort(Comparator.comparingInt(group -> group.key));
+        } else {
+            groups.sort(Comparator.comparing(GroupStatistics::getLabel,
+                    Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER)));
+        }
+        Metrics.increment(Metrics.Counter.SCANS);
+        Metrics.record(Metrics.Phase.GROUP_BY, start, companies.size());
+        return Collections.unmodifiableList(groups);
+    }
+
+    private int groupOf(ABCompany company, GroupKey key) {
+        switch (key) {
+            case COUNTRY:
+                return StringDictionary.SHARED.foldedCode(company.getCountryCode());
+            case PRODUCT_OR_SERVICE:
+                return StringDictionary.SHARED.foldedCode(company.getProductOrServiceCode());
+            default:
+                return Math.floorDiv(company.getRanking() - 1, rankingBandWidth);
+        }
+    }
+
+    private String labelOf(ABCompany company, GroupKey key, int group) {
+        switch (key) {
+            case COUNTRY:
+                return company.getCountry();
+            case PRODUCT_OR_SERVICE:
+                return company.getProductOrService();
+            default:
+                return (group * rankingBandWidth + 1) + "-" + ((group + 1) * rankingBandWidth);
+        }
+    }
+
+    /** Aggregates a range of the list, splitting it in half until it is one chunk. */
+    private class ChunkTask extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<ABCompany> companies;
+        private final GroupKey key;
+        private final int from;
+        private final int to;
+
+        ChunkTask(List<ABCompany> companies, GroupKey key, int from, int to) {
+            this.companies = companies;
+            this.key = key;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from <= CHUNK_SIZE) {
+                Partial partial = new Partial();
+                for (int i = from; i < to; i++) {
+                    ABCompany company = companies.get(i);
+                    int group = groupOf(company, key);
+                    partial.get(group, company, key).add(company.getSharePrices());
+                }
+                return partial;
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask right = new ChunkTask(companies, key, middle, to);
+            right.fork();
+            Partial left = new ChunkTask(companies, key, from, middle).compute();
+            return left.merge(right.join());
+        }
+    }
+
+    /** The groups of one chunk, found by key through an int index. */
+    private class Partial {
+        private final IntIndexMap positions = new IntIndexMap();
+        private final List<GroupStatistics> groups = new ArrayList<>();
+
+        GroupStatistics get(int group, ABCompany company, GroupKey key) {
+            int position = positions.get(group);
+            if (position >= 0) {
+                return groups.get(position);
+            }
+            GroupStatistics statistics = new GroupStatistics(group, labelOf(company, key, group));
+            positions.put(group, groups.size());
+            groups.add(statistics);
+            return statistics;
+        }
+
+        /** Folds the groups of the following chunk into this one. */
+        Partial merge(Partial other) {
+            for (GroupStatistics statistics : other.groups) {
+                int position = positions.get(statistics.key);
+                if (position >= 0) {
+                    groups.get(position).merge(statistics);
+                } else {
+                    positions.put(statistics.key, groups.size());
+                    groups.add(statistics);
+                }
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Share price statistics for one group of companies.
+     */
+    public static final class GroupStatistics {
+        private final int key;
+        private final String label;
+        private int companyCount;
+        private long priceCount;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        GroupStatistics(int key, String label) {
+            this.key = key;
+            this.label = label;
+        }
+
+        void add(double[] prices) {
+            companyCount++;
+            for (double price : prices) {
+                sum += price;
+                min = Math.min(min, price);
+                max = Math.max(max, price);
+            }
+            priceCount += prices.length;
+        }
+
+        void merge(GroupStatistics other) {
+            companyCount += other.companyCount;
+            priceCount += other.priceCount;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        /**
+         * @return the value of the attribute shared by the group, as first seen in the list,
+         *         or the range of rankings for a ranking band
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        public int getCompanyCount() {
+            return companyCount;
+        }
+
+        public long getPriceCount() {
+            return priceCount;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        /**
+         * @return the average share price, or NaN if the group has no prices
+         */
+        public double getAverage() {
+            return priceCount > 0 ? sum / priceCount : Double.NaN;
+        }
+
+        /**
+         * @return the lowest share price, or NaN if the group has no prices
+         */
+        public double getMin() {
+            return priceCount > 0 ? min : Double.NaN;
+        }
+
+        /**
+         * @return the highest share price, or NaN if the group has no prices
+         */
+        public double getMax() {
+            return priceCount > 0 ? max : Double.NaN;
+        }
+
+        /**
+         * @return the difference between the highest and lowest share price
+         */
+        public double getSpread() {
+            return getMax() - getMin();
+        }
+    }
+}
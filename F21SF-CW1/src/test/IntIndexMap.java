@@ -0,0 +1,201 @@
+package test;
+
+import java.util.Arrays;
+
+/**
+ * IntIndexMap is an open-addressing hash map from int keys to non-negative int
+ * values, such as positions in a list. Keys and values are stored in primitive
+ * arrays, so lookups and inserts never box.
+ * <p>
+ * The arrays are held by one immutable {@link Table} object that a resize replaces
+ * whole, so {@link #get(int)} can race a writer, as the optimistic readers of
+ * {@link ConcurrentCompanyList} do: it reads the table once, never probes past its
+ * length and never throws. Such a racing read may return a wrong or missing value,
+ * which the caller must detect by validating afterwards.
+ */
+class IntIndexMap {
+    private static final int MIN_CAPACITY = 16;
+    /** Marks a free slot in {@code values}; stored values are offset by one. */
+    private static final int FREE = 0;
+
+    /** The arrays of one table size; only their contents change until the next resize. */
+    private static final class Table {
+        final int[] keys;
+        final int[] values;
+        final int mask;
+        final int resizeAt;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
+            resizeAt = capacity / 4 * 3;
+        }
+    }
+
+    private Table table;
+    private int size;
+
+    IntIndexMap() {
+        this(MIN_CAPACITY);
+    }
+
+    IntIndexMap(int expectedSize) {
+        table = new Table(tableSizeFor(expectedSize));
+    }
+
+    /**
+     * Retrieves the value stored for a key.
+     *
+     * @param key the key to look up
+     * @return the value, or -1 if the key is not present
+     */
+    int get(int key) {
+        // One read of the table field, so a probe never mixes the arrays of two sizes, and
+        // at most one pass over it, so a reader racing a writer cannot loop
+        Table table = this.table;
+        int[] keys = table.keys;
+        int[] values = table.values;
+        int mask = table.mask;
+        int slot = mix(key) & mask;
+        for (int probes = 0; probes <= mask && values[slot] != FREE; probes++) {
+            if (keys[slot] == key) {
+                return values[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    boolean containsKey(int key) {
+        return get(key) >= 0;
+    }
+
+    /**
+     * Stores a value for a key, replacing any previous value.
+     *
+     * @param key   the key
+     * @param value the value, which must not be negative
+     * @return the previous value, or -1 if the key was not present
+     */
+    int put(int key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must not be negative: " + value);
+        }
+        int[] keys = table.keys;
+        int[] values = table.values;
+        int mask = table.mask;
+        int slot = mix(key) & mask;
+        while (values[slot] != FREE) {
+            if (keys[slot] == key) {
+                int previous = values[slot] - 1;
+                values[slot] = value + 1;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value + 1;
+        if (++size > table.resizeAt) {
+            rehash(keys.length * 2);
+        }
+        return -1;
+    }
+
+    /**
+     * Removes a key, shifting later entries of its probe chain back so no
+     * tombstones are left behind.
+     *
+     * @param key the key to remove
+     * @return the removed value, or -1 if the key was not present
+     */
+    int remove(int key) {
+        int[] keys = table.keys;
+        int[] values = table.values;
+        int mask = table.mask;
+        int slot = mix(key) & mask;
+        while (values[slot] != FREE) {
+            if (keys[slot] == key) {
+                int removed = values[slot] - 1;
+                shiftBack(slot);
+                size--;
+                return removed;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Grows the table once so that it holds the given number of keys without resizing.
+     *
+     * @param expectedSize the number of keys the map is expected to hold
+     */
+    void ensureCapacity(int expectedSize) {
+        int capacity = tableSizeFor(expectedSize);
+        if (capacity > table.keys.length) {
+            rehash(capacity);
+        }
+    }
+
+    void clear() {
+        Arrays.fill(table.values, FREE);
+        size = 0;
+    }
+
+    private void shiftBack(int gap) {
+        int[] keys = table.keys;
+        int[] values = table.values;
+        int mask = table.mask;
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (values[slot] == FREE) {
+                break;
+            }
+            int home = mix(keys[slot]) & mask;
+            // Move the entry into the gap unless its home slot lies cyclically in (gap, slot]
+            if (gap <= slot ? (home <= gap || home > slot) : (home <= gap && home > slot)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        values[gap] = FREE;
+    }
+
+    private void rehash(int capacity) {
+        Table old = table;
+        Table resized = new Table(capacity);
+        for (int i = 0; i < old.values.length; i++) {
+            if (old.values[i] != FREE) {
+                int slot = mix(old.keys[i]) & resized.mask;
+                while (resized.values[slot] != FREE) {
+                    slot = (slot + 1) & resized.mask;
+                }
+                resized.keys[slot] = old.keys[i];
+                resized.values[slot] = old.values[i];
+            }
+        }
+        // Readers see either the old table or this one, never the arrays of both
+        table = resized;
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity / 4 * 3 < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /** Spreads sequential company numbers across the table. */
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
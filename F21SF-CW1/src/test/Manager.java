@@ -1,8 +1,20 @@
 package test;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.stream.Stream;
+
+import test.GroupByAggregator.GroupKey;
+import test.GroupByAggregator.GroupStatistics;
 
 /**
  * The Manager class handles the main functionality of the company management application.
@@ -11,6 +23,11 @@ import java.util.Scanner;
  */
 
 public class Manager {
+    private static final int DEFAULT_PORT = 8080;
+    /** Companies per segment file and segments cached in memory for out-of-core reports. */
+    private static final int SEGMENT_SIZE = 1 << 16;
+    private static final int CACHED_SEGMENTS = 4;
+
     private CompanyList companyList;
     private Scanner scanner;
 
@@ -30,72 +47,138 @@ public class Manager {
      */
     
     public void readFromFile(String filename) {
+        long start = Metrics.start();
+        long rows = 0;
         try (Scanner scanner = new Scanner(new File(filename))) {
             while (scanner.hasNextLine()) {
                 String line = scanner.nextLine();
                 String[] details = line.split(",");
 
-                
-                int companyNumber = Integer.parseInt(details[0].trim());
-                String companyName = details[1].trim();
-                String productOrService = details[2].trim();
-                int ranking = Integer.parseInt(details[3].trim());
-                String country = details[4].trim();
-                String[] priceStrings = details[5].split(";");
-                double[] sharePrices = new double[priceStrings.length];
-                for (int i = 0; i < priceStrings.length; i++) {
-                    sharePrices[i] = Double.parseDouble(priceStrings[i].trim());
+                ABCompany company;
+                try {
+                    int companyNumber = Integer.parseInt(details[0].trim());
+                    String companyName = details[1].trim();
+                    String productOrService = details[2].trim();
+                    int ranking = Integer.parseInt(details[3].trim());
+                    String country = details[4].trim();
+                    String[] priceStrings = details[5].split(";");
+                    double[] sharePrices = new double[priceStrings.length];
+                    for (int i = 0; i < priceStrings.length; i++) {
+                        sharePrices[i] = Double.parseDouble(priceStrings[i].trim());
+                    }
+                    company = new ABCompany(companyNumber, companyName, productOrService, ranking, country, sharePrices);
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    Metrics.increment(Metrics.Counter.PARSE_ERRORS);
+                    throw e;
                 }
 
-                ABCompany company = new ABCompany(companyNumber, companyName, productOrService, ranking, country, sharePrices);
                 companyList.addCompany(company);
+                rows++;
             }
+            Metrics.add(Metrics.Counter.BYTES_READ, new File(filename).length());
         } catch (FileNotFoundException e) {
             e.printStackTrace();
+        } finally {
+            Metrics.add(Metrics.Counter.ROWS_PARSED, rows);
+            Metrics.record(Metrics.Phase.INGEST, start, rows);
         }
     }
 
     /**
-     * Writes formatted company details to a specified file.
-     * 
-     * @param filename the name of the file to write to
+     * Reads company details from a specified file through a memory map and adds them
+     * to the company list. Loads the same companies as {@link #readFromFile(String)}
+     * and prints the parse throughput and the heap saved by dictionary encoding.
+     *
+     * @param filename the name of the file to read from
      */
-    
-    public void writeToFile(String filename) {
-        try (PrintWriter writer = new PrintWriter(new File(filename))) {
-            // Assuming that the maximum width for each column is known or calculated
-            int numWidth = 10;  // Width for company number
-            int nameWidth = 26; // Width for company name
-            int serviceWidth = 19; // Width for product/service
-            int rankWidth = 7;  // Width for ranking
-            int countryWidth = 15; // Width for country
-            int priceWidth = 10; // Width for each price
-
-            // Write header with borders
-            String formatString = "| %-" + numWidth + "s | %-" + nameWidth + "s | %-" + serviceWidth + "s | %-" +
-                    rankWidth + "s | %-" + countryWidth + "s | %-" + priceWidth + "s |%n";
-
-            writer.printf(formatString,
-                    "Number", "Name", "Service", "Rank", "Country", "Prices");
-
-            // Print a line to separate the header from the data
-            writer.println("+" + "-".repeat(numWidth + 2)
-                    + "+" + "-".repeat(nameWidth + 2)
-                    + "+" + "-".repeat(serviceWidth + 2)
-                    + "+" + "-".repeat(rankWidth + 2)
-                    + "+" + "-".repeat(countryWidth + 2)
-                    + "+" + "-".repeat(priceWidth + 2) + "+");
-
-            for (ABCompany company : companyList.getCompanies()) {
-                String priceString = formatPrices(company.getSharePrices(), priceWidth - 2); // Subtract 2 for the border spacing
-
-                writer.printf(formatString,
-                        company.getCompanyNumber(),
-                        company.getCompanyName(),
-                        company.getProductOrService(),
-                        company.getRanking(),
-                        company.getCountry(),
-                        priceString);
+
+    public void readFromFileMapped(String filename) {
+        MappedFileReader reader = new MappedFileReader(companyList);
+        StringDictionary.Footprint before = StringDictionary.SHARED.footprint();
+        try {
+            reader.read(filename);
+            System.out.printf("Read %d rows (%d bytes) in %.1f ms: %.0f rows/sec, %.0f bytes/sec%n",
+                    reader.getRowsRead(), reader.getBytesRead(), reader.getElapsedNanos() / 1e6,
+                    reader.getRowsPerSecond(), reader.getBytesPerSecond());
+            System.out.println(StringDictionary.SHARED.describeFootprint(before));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads company details from a binary snapshot of a specified file when one is up
+     * to date, or else from the file itself, writing a snapshot for the next run.
+     * The snapshot is kept next to the file with a {@code .snapshot} suffix.
+     *
+     * @param filename the name of the file to read from
+     */
+
+    public void readFromFileWithSnapshot(String filename) {
+        try {
+            long start = System.nanoTime();
+            boolean fromSnapshot = CompanySnapshot.load(Paths.get(filename), Paths.get(filename + ".snapshot"), companyList);
+            System.out.printf("Loaded %d companies from %s in %.1f ms%n", companyList.getCompanies().size(),
+                    fromSnapshot ? "snapshot" : "text input", (System.nanoTime() - start) / 1e6);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads company details from a file, or from every shard file in a directory,
+     * on all available cores and adds them to the company list.
+     *
+     * @param filename      the name of the file or directory to read from
+     * @param preserveOrder whether companies are added in file order
+     */
+
+    public void readFromFileParallel(String filename, boolean preserveOrder) {
+        ParallelFileReader reader = new ParallelFileReader(Runtime.getRuntime().availableProcessors(), preserveOrder);
+        StringDictionary.Footprint before = StringDictionary.SHARED.footprint();
+        try {
+            reader.read(filename, companyList);
+            System.out.printf("Read %d rows (%d bytes) in %.1f ms: %.0f rows/sec, %.0f bytes/sec%n",
+                    reader.getRowsRead(), reader.getBytesRead(), reader.getElapsedNanos() / 1e6,
+                    reader.getRowsPerSecond(), reader.getBytesPerSecond());
+            System.out.println(StringDictionary.SHARED.describeFootprint(before));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Generates the report of {@link #generateReport(String)} for a file too large to
+     * hold in memory. The companies are written to segment files in a temporary
+     * directory and the report streams through them, so only a few segments are in
+     * memory at a time. The share price statistics are then computed from the segments
+     * and printed with the statistics kernel used, which is the Vector API kernel when
+     * the JVM was started with {@code --add-modules jdk.incubator.vector}. The segment
+     * files are deleted afterwards, and the loaded company list is not used.
+     *
+     * @param filename         the name of the file to read from
+     * @param workDirectory    the directory to create the temporary segment directory in
+     * @param reportFilename   the name of the file to write the report to
+     */
+
+    public void generateReportOutOfCore(String filename, String workDirectory, String reportFilename) {
+        try {
+            Path segments = Files.createTempDirectory(Paths.get(workDirectory), "segments");
+            try (SegmentedCompanyStore store = new SegmentedCompanyStore(segments, SEGMENT_SIZE, CACHED_SEGMENTS)) {
+                store.readFromFile(filename);
+                new ReportWriter(store.companies()).writeReport(Paths.get(reportFilename));
+                double[] statistics = store.getSharePriceStatistics();
+                System.out.printf("%d share prices (%s kernel): average %.2f, minimum %.2f, maximum %.2f%n",
+                        (long) statistics[0], PriceKernels.kernelName(), store.getAverageSharePrice(),
+                        statistics[2], statistics[3]);
+                System.out.println(store.describeCache());
+            } finally {
+                try (Stream<Path> files = Files.list(segments)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(segments);
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -103,66 +186,115 @@ public class Manager {
     }
 
     /**
-     * Formats an array of share prices into a string for writing to a file.
+     * Writes formatted company details to a specified file.
      * 
-     * @param prices array of share prices to format
-     * @param width  the width allocated for each price in the formatted string
-     * @return a formatted string of share prices
+     * @param filename the name of the file to write to
      */
     
-    private String formatPrices(double[] prices, int width) {
-        StringBuilder sb = new StringBuilder();
-        for (double price : prices) {
-            sb.append(String.format("%-" + width + ".2f", price));
+    public void writeToFile(String filename) {
+        try {
+            new ReportWriter(companyList.getCompanies()).writeTable(Paths.get(filename));
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        return sb.toString();
     }
     
     /**
-     * Generates a detailed report with company information and statistics, appending it to a given file.
+     * Generates a detailed report with company information and statistics and writes it to a given file.
+     * The table and every statistic are produced in a single pass and written in one go.
      * 
-     * @param filename the name of the file to append the report to
+     * @param filename the name of the file to write the report to
      */
     
     public void generateReport(String filename) {
-        writeToFile(filename);
-    try (PrintWriter writer = new PrintWriter(new FileWriter(filename, true))) { // Append mode
-        ABCompany highestPriceCompany = companyList.getCompanyWithHighestSharePrice();
-        double averageSharePrice = companyList.getAverageSharePrice();
-        double minSharePrice = companyList.getMinSharePrice();
-        double maxSharePrice = companyList.getMaxSharePrice();
-        long companiesProducingClothes = companyList.countCompaniesProducing("clothes");
-        Map<Double, Long> sharePriceFrequency = companyList.getSharePriceFrequency();
+        try {
+            new ReportWriter(companyList.getCompanies()).writeReport(Paths.get(filename));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Generates the report of {@link #generateReport(String)} followed by per-group
+     * share price statistics for each of the given attributes. Each grouping is
+     * computed in one parallel pass over the company list.
+     *
+     * @param filename  the name of the file to write the report to
+     * @param groupKeys the attributes to group the companies by
+     */
 
-  
-        if (highestPriceCompany != null) {
-            writer.println("\nCompany with the Highest Share Price:");
-            writer.println(highestPriceCompany.getFullDetails());
-            writer.println();
+    public void generateReport(String filename, GroupKey... groupKeys) {
+        GroupByAggregator aggregator = new GroupByAggregator();
+        Map<GroupKey, List<GroupStatistics>> groupings = new EnumMap<>(GroupKey.class);
+        for (GroupKey key : groupKeys) {
+            groupings.put(key, aggregator.aggregate(companyList, key));
+        }
+        try {
+            new ReportWriter(companyList.getCompanies()).writeReport(Paths.get(filename), groupings);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Answers every query in a query file against the loaded company list and writes
+     * the results to an output file through one buffered writer. See
+     * {@link BatchQueryRunner} for the query and result formats.
+     *
+     * @param queryFilename  the name of the file holding one query per line
+     * @param outputFilename the name of the file to write the results to
+     */
+
+    public void runBatch(String queryFilename, String outputFilename) {
+        long start = System.nanoTime();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(queryFilename), Charset.defaultCharset());
+             Writer out = new BufferedWriter(new OutputStreamWriter(
+                     Files.newOutputStream(Paths.get(outputFilename)), Charset.defaultCharset()), 1 << 16)) {
+            long queries = new BatchQueryRunner(companyList).run(in, out);
+            out.flush();
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("Answered %d queries in %.1f ms: %.0f queries/sec%n",
+                    queries, elapsed / 1e6, queries * 1e9 / Math.max(elapsed, 1));
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+    }
 
-        writer.println("Summary Statistics:");
-        writer.printf("Average Share Price: %.2f%n", averageSharePrice);
-        writer.printf("Minimum Share Price: %.2f%n", minSharePrice);
-        writer.printf("Maximum Share Price: %.2f%n", maxSharePrice);
-        writer.printf("Number of Companies Producing Clothes: %d%n", companiesProducingClothes);
+    /**
+     * Serves the loaded company list over HTTP on the loopback interface until the JVM
+     * is stopped. See {@link CompanyServer} for the endpoints.
+     *
+     * @param port the local port to listen on, or 0 for any free port
+     */
 
+    public void serve(int port) {
+        serve(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
 
-        writer.println("Share Price Frequency:");
-        sharePriceFrequency.forEach((price, frequency) ->
-            writer.printf("Price: %.2f, Frequency: %d%n", price, frequency));
+    /**
+     * Serves the loaded company list over HTTP on the given address until the JVM is
+     * stopped. The server has no authentication, so only bind a non-loopback address
+     * on a trusted network.
+     *
+     * @param address the local address and port to listen on
+     */
 
-        writer.flush();
-    } catch (IOException e) {
-        e.printStackTrace();
+    public void serve(InetSocketAddress address) {
+        try {
+            CompanyServer server = new CompanyServer(companyList, address);
+            server.start();
+            System.out.printf("Serving %d companies on http://%s:%d/%n", companyList.getCompanies().size(),
+                    address.getAddress().isLoopbackAddress() ? "localhost" : address.getHostString(), server.getPort());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
-    
+
     /**
      * Displays short details for a company identified by its company number.
      * 
      * @param companyNumber the number of the company to display information for
      */
-}
     public void displayShortDetailsForCompany(int companyNumber) {
         ABCompany company = companyList.getCompanyByNumber(companyNumber);
         if (company != null) {
@@ -206,13 +338,11 @@ public class Manager {
             try {
                 int companyNumber = Integer.parseInt(input);
                 displayShortDetailsForCompany(companyNumber);
-               
-                writeToFile("C:\\Users\\aaron\\OneDrive\\Desktop\\output.txt");
             } catch (NumberFormatException e) {
                 System.out.println("Please enter a valid number.");
             }
 
-          
+            // The report starts with the same table writeToFile would produce
             generateReport("C:\\Users\\aaron\\OneDrive\\Desktop\\output.txt");
         } else {
             System.out.println("Login failed. Exiting the program.");
@@ -221,15 +351,50 @@ public class Manager {
 
     /**
      * The entry point of the application. This method reads company details from a file and starts the application.
+     * With three arguments it runs headless instead: it loads the input file, answers
+     * every query in the query file and writes the results to the output file. With
+     * {@code serve} it loads the input file and answers queries over HTTP, on the
+     * loopback interface unless a bind address is given. With
+     * {@code -Dtest.metrics=true}, a {@link Metrics} summary is printed on exit.
      * 
-     * @param args command-line arguments (not used in this application)
+     * @param args no arguments for the interactive application, the input, output
+     *             and query file names for batch mode, or {@code serve}, the input
+     *             file name and optionally a port and a bind address for server mode
      */
 
     public static void main(String[] args) {
         Manager manager = new Manager();
+        boolean serve = args.length >= 2 && args.length <= 4 && args[0].equals("serve");
+
+        if (!serve && args.length != 0 && args.length != 3) {
+            System.err.println("Usage: Manager [<input file> <output file> <query file>]");
+            System.err.println("       Manager serve <input file> [<port> [<bind address>]]");
+            System.exit(2);
+        }
+        // The summary is printed however the run ends, including a stopped server
+        if (Metrics.ENABLED) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.print(Metrics.summary())));
+        }
+
+        if (serve) {
+            // Read by the JDK when the first server is created; see CompanyServer
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+                System.setProperty("sun.net.httpserver.nodelay", "true");
+            }
+            int port = args.length >= 3 ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+            manager.readFromFileWithSnapshot(args[1]);
+            manager.serve(args.length == 4 ? new InetSocketAddress(args[3], port)
+                    : new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            return;
+        }
+        if (args.length == 3) {
+            manager.readFromFileWithSnapshot(args[0]);
+            manager.runBatch(args[2], args[1]);
+            return;
+        }
 
-        // Reads company details from the file
-        manager.readFromFile("C:\\Users\\aaron\\OneDrive\\Desktop\\input.txt");
+        // Reads company details from the file, or from its snapshot if the file has not changed
+        manager.readFromFileWithSnapshot("C:\\Users\\aaron\\OneDrive\\Desktop\\input.txt");
 
         // The run method handles the entire program flow including login
         manager.run();
@@ -0,0 +1,346 @@
+package test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * MappedFileReader loads company records from a memory-mapped input file.
+ * Each line has the same layout that {@link Manager#readFromFile(String)} expects:
+ * number, name, product or service, ranking, country and a semicolon separated
+ * list of share prices. Fields are parsed straight from the mapped bytes, so the
+ * only Strings created are the text fields that {@code ABCompany} keeps. A blank
+ * or malformed line throws a {@link NumberFormatException}, as it does on the
+ * Scanner path.
+ * <p>
+ * A reader keeps reusable scratch buffers and is not thread-safe.
+ */
+public class MappedFileReader {
+    /** Largest region of the file mapped at once. */
+    static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private static final int FIELD_COUNT = 6;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Receives the fields of each parsed record. The price array is scratch space
+     * that is reused for the next record, so only the first {@code priceCount}
+     * entries are valid and they must be copied if they are kept.
+     */
+    interface RecordSink {
+        void accept(int companyNumber, String companyName, String productOrService, int ranking,
+                String country, double[] sharePrices, int priceCount);
+    }
+
+    private final RecordSink sink;
+    private final int windowSize;
+    private final Charset charset = Charset.defaultCharset();
+    private final int[] fieldStart = new int[FIELD_COUNT];
+    private final int[] fieldEnd = new int[FIELD_COUNT];
+    private byte[] textBuffer = new byte[64];
+    private double[] priceBuffer = new double[8];
+    private long rowsRead;
+    private long bytesRead;
+    private long elapsedNanos;
+
+    /**
+     * Creates a reader that adds every parsed company to the given list.
+     *
+     * @param companyList the list to load companies into
+     */
+    public MappedFileReader(CompanyList companyList) {
+        this((number, name, product, ranking, country, prices, count) ->
+                companyList.addCompany(new ABCompany(number, name, product, ranking, country,
+                        Arrays.copyOf(prices, count))));
+    }
+
+    MappedFileReader(RecordSink sink) {
+        this(sink, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedFileReader(RecordSink sink, int windowSize) {
+        this.sink = sink;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Maps the given file and parses every record in it. Files larger than the
+     * mapping window are mapped one window at a time, always restarting at the
+     * beginning of a line.
+     *
+     * @param filename the name of the file to read from
+     * @return the number of records read from this file
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public long read(String filename) throws IOException {
+        return read(Paths.get(filename));
+    }
+
+    /**
+     * Maps the given file and parses every record in it.
+     *
+     * @param path the file to read from
+     * @return the number of records read from this file
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public long read(Path path) throws IOException {
+        long start = System.nanoTime();
+        long phaseStart = Metrics.start();
+        long rowsBefore = rowsRead;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(windowSize, size - position);
+                boolean endOfInput = position + length == size;
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int consumed = parseLines(window, (int) length, endOfInput);
+                if (consumed == 0 && !endOfInput) {
+                    throw new IOException("Line at offset " + position + " is longer than the mapping window");
+                }
+                position += endOfInput ? length : consumed;
+            }
+            bytesRead += size;
+            Metrics.add(Metrics.Counter.BYTES_READ, size);
+        } finally {
+            elapsedNanos += System.nanoTime() - start;
+            Metrics.record(Metrics.Phase.INGEST, phaseStart, rowsRead - rowsBefore);
+        }
+        return rowsRead - rowsBefore;
+    }
+
+    /**
+     * Parses every complete line in {@code buffer[0, limit)}. When {@code endOfInput}
+     * is set a final line without a trailing newline is parsed as well.
+     *
+     * @return the number of bytes consumed, always ending just after a newline
+     *         unless {@code endOfInput} is set
+     */
+    int parseLines(ByteBuffer buffer, int limit, boolean endOfInput) {
+        // Rows are counted once per call rather than per line to keep the counter cheap
+        long rowsBefore = rowsRead;
+        try {
+            int lineStart = 0;
+            for (int i = 0; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    parseLine(buffer, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            if (endOfInput && lineStart < limit) {
+                parseLine(buffer, lineStart, limit);
+                return limit;
+            }
+            return lineStart;
+        } catch (NumberFormatException e) {
+            Metrics.increment(Metrics.Counter.PARSE_ERRORS);
+            throw e;
+        } finally {
+            Metrics.add(Metrics.Counter.ROWS_PARSED, rowsRead - rowsBefore);
+        }
+    }
+
+    private void parseLine(ByteBuffer buffer, int from, int to) {
+        int fields = 0;
+        int start = from;
+        for (int i = from; i < to && fields < FIELD_COUNT - 1; i++) {
+            if (buffer.get(i) == ',') {
+                fieldStart[fields] = start;
+                fieldEnd[fields] = i;
+                fields++;
+                start = i + 1;
+            }
+        }
+        if (fields < FIELD_COUNT - 1) {
+            throw new NumberFormatException("Expected " + FIELD_COUNT + " fields but found " + (fields + 1)
+                    + ": " + new String(bytes(buffer, from, to), 0, to - from, charset));
+        }
+        // The price list ends at the next comma, matching String.split(",") ignoring extra fields
+        int priceEnd = start;
+        while (priceEnd < to && buffer.get(priceEnd) != ',') {
+            priceEnd++;
+        }
+        fieldStart[FIELD_COUNT - 1] = start;
+        fieldEnd[FIELD_COUNT - 1] = priceEnd;
+
+        int companyNumber = parseInt(buffer, fieldStart[0], fieldEnd[0]);
+        String companyName = parseText(buffer, fieldStart[1], fieldEnd[1]);
+        String productOrService = parseText(buffer, fieldStart[2], fieldEnd[2]);
+        int ranking = parseInt(buffer, fieldStart[3], fieldEnd[3]);
+        String country = parseText(buffer, fieldStart[4], fieldEnd[4]);
+        int priceCount = parsePrices(buffer, fieldStart[5], fieldEnd[5]);
+
+        sink.accept(companyNumber, companyName, productOrService, ranking, country, priceBuffer, priceCount);
+        rowsRead++;
+    }
+
+    private int parsePrices(ByteBuffer buffer, int from, int to) {
+        // String.split drops trailing empty strings, so trailing separators are ignored
+        while (to > from && buffer.get(to - 1) == ';') {
+            to--;
+        }
+        int count = 0;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || buffer.get(i) == ';') {
+                if (count == priceBuffer.length) {
+                    priceBuffer = Arrays.copyOf(priceBuffer, count * 2);
+                }
+                priceBuffer[count++] = parseDouble(buffer, start, i);
+                start = i + 1;
+            }
+        }
+        return count;
+    }
+
+    private String parseText(ByteBuffer buffer, int from, int to) {
+        while (from < to && isWhitespace(buffer.get(from))) {
+            from++;
+        }
+        while (to > from && isWhitespace(buffer.get(to - 1))) {
+            to--;
+        }
+        return new String(bytes(buffer, from, to), 0, to - from, charset);
+    }
+
+    private int parseInt(ByteBuffer buffer, int from, int to) {
+        while (from < to && isWhitespace(buffer.get(from))) {
+            from++;
+        }
+        while (to > from && isWhitespace(buffer.get(to - 1))) {
+            to--;
+        }
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        if (i == to) {
+            throw numberFormat(buffer, from, to);
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw numberFormat(buffer, from, to);
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw numberFormat(buffer, from, to);
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw numberFormat(buffer, from, to);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses plain decimal numbers directly. The mantissa and the power of ten are
+     * both exactly representable in that case, so one division gives the correctly
+     * rounded result that {@link Double#parseDouble(String)} would. Anything else,
+     * such as exponents or very long mantissas, falls back to Double.parseDouble.
+     */
+    private double parseDouble(ByteBuffer buffer, int from, int to) {
+        while (from < to && isWhitespace(buffer.get(from))) {
+            from++;
+        }
+        while (to > from && isWhitespace(buffer.get(to - 1))) {
+            to--;
+        }
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                if (++digits > 18) {
+                    return slowParseDouble(buffer, from, to);
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return slowParseDouble(buffer, from, to);
+            }
+        }
+        if (digits == 0 || mantissa > MAX_EXACT_MANTISSA || fractionDigits >= POWERS_OF_TEN.length) {
+            return slowParseDouble(buffer, from, to);
+        }
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : (double) mantissa;
+        return negative ? -value : value;
+    }
+
+    private double slowParseDouble(ByteBuffer buffer, int from, int to) {
+        return Double.parseDouble(new String(bytes(buffer, from, to), 0, to - from, charset));
+    }
+
+    private NumberFormatException numberFormat(ByteBuffer buffer, int from, int to) {
+        return new NumberFormatException("For input string: \""
+                + new String(bytes(buffer, from, to), 0, to - from, charset) + "\"");
+    }
+
+    private byte[] bytes(ByteBuffer buffer, int from, int to) {
+        int length = to - from;
+        if (length > textBuffer.length) {
+            textBuffer = new byte[Math.max(length, textBuffer.length * 2)];
+        }
+        buffer.get(from, textBuffer, 0, length);
+        return textBuffer;
+    }
+
+    /** Matches {@link String#trim()}, which strips every character up to and including space. */
+    private static boolean isWhitespace(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Retrieves the parse throughput in rows per second.
+     *
+     * @return rows per second over every file read so far
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos > 0 ? rowsRead * 1e9 / elapsedNanos : 0;
+    }
+
+    /**
+     * Retrieves the parse throughput in bytes per second.
+     *
+     * @return bytes per second over every file read so far
+     */
+    public double getBytesPerSecond() {
+        return elapsedNanos > 0 ? bytesRead * 1e9 / elapsedNanos : 0;
+    }
+}
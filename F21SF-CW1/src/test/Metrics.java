@@ -0,0 +1,306 @@
+package test;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Metrics collects process-wide counters and phase latencies for ingest, queries and
+ * reports. Counters and histogram buckets are {@link LongAdder}s, so threads that
+ * record at the same time do not contend on one cache line.
+ * <p>
+ * Latencies go into histograms with one bucket per power of two nanoseconds, which is
+ * enough to read off percentiles to within a factor of two at the cost of one
+ * {@code numberOfLeadingZeros} per sample. Only whole phases are timed, because reading
+ * the clock costs as much as a single lookup. A lookup by number or a count by product
+ * is cheap enough that even one counter increment would show up, so no lookup or
+ * filter is counted inside {@link CompanyList}; its callers count them instead, with
+ * {@link BatchQueryRunner} adding up its own lookups and recording the total once.
+ * <p>
+ * Every timed phase is also emitted as a {@link PhaseEvent} for JDK Flight Recorder,
+ * so a recording started with {@code -XX:StartFlightRecording} shows ingest, scans and
+ * reports next to GC and allocation events. The event costs nothing unless a recording
+ * has it enabled.
+ * <p>
+ * Recording is off by default and is turned on with {@code -Dtest.metrics=true};
+ * the flag is a constant, so disabled calls compile away.
+ */
+public final class Metrics {
+    /** Whether metrics are recorded. */
+    public static final boolean ENABLED = Boolean.getBoolean("test.metrics");
+
+    /** The things that are counted. */
+    public enum Counter {
+        ROWS_PARSED("rows parsed"),
+        PARSE_ERRORS("parse errors"),
+        BYTES_READ("bytes read"),
+        LOOKUPS("lookups"),
+        SCANS("scans"),
+        TICKS("ticks"),
+        REPORT_ROWS("report rows"),
+        BYTES_WRITTEN("bytes written"),
+        QUERIES("queries"),
+        PAGE_HITS("page cache hits"),
+        PAGE_MISSES("page cache misses");
+
+        private final String label;
+        private final LongAdder adder = new LongAdder();
+
+        Counter(String label) {
+            this.label = label;
+        }
+    }
+
+    /** The phases whose time is measured. */
+    public enum Phase {
+        INGEST("ingest"),
+        SNAPSHOT("snapshot load"),
+        SCAN("full scans"),
+        GROUP_BY("group-by"),
+        REPORT("report"),
+        BATCH("batch queries");
+
+        private final String label;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Adds one to a counter.
+     *
+     * @param counter the counter
+     */
+    public static void increment(Counter counter) {
+        if (ENABLED) {
+            counter.adder.increment();
+        }
+    }
+
+    /**
+     * Adds an amount to a counter.
+     *
+     * @param counter the counter
+     * @param amount  the amount to add
+     */
+    public static void add(Counter counter, long amount) {
+        if (ENABLED && amount != 0) {
+            counter.adder.add(amount);
+        }
+    }
+
+    /**
+     * @param counter the counter
+     * @return the current value of the counter
+     */
+    public static long get(Counter counter) {
+        return counter.adder.sum();
+    }
+
+    /**
+     * Reads the clock at the start of a timed phase.
+     *
+     * @return the start time to pass to {@link #record(Phase, long)}
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since a start time against a phase.
+     *
+     * @param phase        the phase that ran
+     * @param startNanos   the value returned by {@link #start()}
+     * @return the elapsed time in nanoseconds, or 0 if metrics are disabled
+     */
+    public static long record(Phase phase, long startNanos) {
+        return record(phase, startNanos, 0);
+    }
+
+    /**
+     * Records the time since a start time against a phase, along with the number of
+     * rows, companies or bytes it handled.
+     *
+     * @param phase        the phase that ran
+     * @param startNanos   the value returned by {@link #start()}
+     * @param items        the amount of work done, reported in the Flight Recorder event
+     * @return the elapsed time in nanoseconds, or 0 if metrics are disabled
+     */
+    public static long record(Phase phase, long startNanos, long items) {
+        if (!ENABLED) {
+            return 0;
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        phase.latencies.record(elapsed);
+        PhaseEvent event = new PhaseEvent();
+        if (event.isEnabled()) {
+            event.phase = phase.label;
+            event.items = items;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+        return elapsed;
+    }
+
+    /**
+     * @param phase the phase
+     * @return the latency histogram of the phase
+     */
+    public static LatencyHistogram getLatencies(Phase phase) {
+        return phase.latencies;
+    }
+
+    /**
+     * Clears every counter and histogram.
+     */
+    public static void reset() {
+        for (Counter counter : Counter.values()) {
+            counter.adder.reset();
+        }
+        for (Phase phase : Phase.values()) {
+            phase.latencies.reset();
+        }
+    }
+
+    /**
+     * Describes every non-zero counter and every phase that ran.
+     *
+     * @return a multi-line summary
+     */
+    public static String summary() {
+        StringBuilder summary = new StringBuilder("Metrics:").append(System.lineSeparator());
+        for (Counter counter : Counter.values()) {
+            long value = get(counter);
+            if (value != 0) {
+                summary.append(String.format("  %-24s %,d%n", counter.label, value));
+            }
+        }
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram latencies = phase.latencies;
+            long count = latencies.getCount();
+            if (count != 0) {
+                summary.append(String.format("  %-24s %,d in %.1f ms (mean %.3f ms, p50 <= %.3f ms, p99 <= %.3f ms, max %.3f ms)%n",
+                        phase.label, count, latencies.getTotalNanos() / 1e6, latencies.getTotalNanos() / 1e6 / count,
+                        latencies.getPercentileNanos(0.50) / 1e6, latencies.getPercentileNanos(0.99) / 1e6,
+                        latencies.getMaxNanos() / 1e6));
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * A Flight Recorder event for one run of a timed phase. The elapsed time is a field
+     * rather than the event's own duration, because the phase is only known to have
+     * been timed once it has finished.
+     */
+    @Name("test.Phase")
+    @Label("Company Phase")
+    @Category("Companies")
+    @Description("One ingest, scan, group-by, report or batch run")
+    @StackTrace(false)
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Items")
+        @Description("Rows, companies or bytes handled by the phase")
+        long items;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    /**
+     * A latency histogram with one bucket per power of two nanoseconds.
+     */
+    public static final class LatencyHistogram {
+        private static final int BUCKETS = Long.SIZE;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        LatencyHistogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records one sample. Bucket {@code b} holds samples below {@code 2^b} nanoseconds.
+         *
+         * @param nanos the sample in nanoseconds; negative samples count as zero
+         */
+        void record(long nanos) {
+            long sample = Math.max(nanos, 0);
+            buckets[BUCKETS - Long.numberOfLeadingZeros(sample)].increment();
+            totalNanos.add(sample);
+            maxNanos.accumulate(sample);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * Finds the upper bound of the bucket holding a percentile, or the largest
+         * sample if that is lower.
+         *
+         * @param fraction the percentile as a fraction, such as 0.99
+         * @return an upper bound on the percentile in nanoseconds, or 0 if nothing was recorded
+         */
+        public long getPercentileNanos(double fraction) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i == BUCKETS - 1 ? getMaxNanos() : Math.min(1L << i, getMaxNanos());
+                }
+            }
+            return getMaxNanos();
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            totalNanos.reset();
+            maxNanos.reset();
+        }
+    }
+}
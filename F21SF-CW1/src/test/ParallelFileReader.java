@@ -0,0 +1,274 @@
+package test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * ParallelFileReader loads companies from one large input file, or from a directory
+ * of shard files, using every available core. Files are split into chunks at
+ * newline boundaries and each chunk is memory-mapped and parsed by its own
+ * {@link MappedFileReader} on a fork-join pool. Each worker also works out the
+ * statistics and index groups of its chunk, so the parsed chunks are merged into a
+ * {@link CompanyList} with {@link CompanyList#addAll(List, ForkJoinPool)}, either in
+ * file order or in the order they finish.
+ */
+public class ParallelFileReader {
+    /** Number of chunks per worker thread, so uneven chunks still balance out. */
+    private static final int CHUNKS_PER_THREAD = 4;
+    /** Files smaller than this are parsed as a single chunk. */
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    private final int parallelism;
+    private final boolean preserveOrder;
+    private long rowsRead;
+    private long bytesRead;
+    private long elapsedNanos;
+
+    /**
+     * Creates a reader that uses one thread per available core and keeps file order.
+     */
+    public ParallelFileReader() {
+        this(Runtime.getRuntime().availableProcessors(), true);
+    }
+
+    /**
+     * Creates a reader with the given number of worker threads.
+     *
+     * @param parallelism   the number of worker threads
+     * @param preserveOrder whether companies are added in file order; if false they
+     *                      are added as soon as their chunk has been parsed
+     */
+    public ParallelFileReader(int parallelism, boolean preserveOrder) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.preserveOrder = preserveOrder;
+    }
+
+    /**
+     * Reads every company from a file, or from every regular file in a directory
+     * taken in name order, and adds them to the given list.
+     *
+     * @param filename    the file or directory to read from
+     * @param companyList the list to load companies into
+     * @return the number of companies read
+     * @throws IOException if a file cannot be opened or mapped
+     */
+    public long read(String filename, CompanyList companyList) throws IOException {
+        return read(Paths.get(filename), companyList);
+    }
+
+    /**
+     * Reads every company from a file, or from every regular file in a directory
+     * taken in name order, and adds them to the given list.
+     *
+     * @param path        the file or directory to read from
+     * @param companyList the list to load companies into
+     * @return the number of companies read
+     * @throws IOException if a file cannot be opened or mapped
+     */
+    public long read(Path path, CompanyList companyList) throws IOException {
+        long start = System.nanoTime();
+        long phaseStart = Metrics.start();
+        long rowsBefore = rowsRead;
+        List<Path> files;
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> entries = Files.list(path)) {
+                files = entries.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+        } else {
+            files = List.of(path);
+        }
+
+        List<Chunk> chunks = new ArrayList<>();
+        for (Path file : files) {
+            split(file, chunks);
+        }
+        long totalBytes = 0;
+        for (Chunk chunk : chunks) {
+            totalBytes += chunk.length;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            CompletionService<Parsed> completion = new ExecutorCompletionService<>(pool);
+            List<Future<Parsed>> futures = new ArrayList<>(chunks.size());
+            for (Chunk chunk : chunks) {
+                futures.add(completion.submit(chunk::parse));
+            }
+            long rows = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                Future<Parsed> next = preserveOrder ? futures.get(i) : completion.take();
+                Parsed parsed = join(next);
+                if (i == 0 && parsed.length > 0) {
+                    // Size the list once from the row density of the first chunk, with some slack
+                    long expected = companyList.getCompanies().size()
+                            + parsed.batch.size() * totalBytes / parsed.length * 21 / 20;
+                    companyList.ensureCapacity((int) Math.min(expected, Integer.MAX_VALUE - 8));
+                }
+                companyList.addAll(List.of(parsed.batch), pool);
+                rows += parsed.batch.size();
+            }
+            rowsRead += rows;
+            return rows;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + path, e);
+        } finally {
+            pool.shutdownNow();
+            elapsedNanos += System.nanoTime() - start;
+            Metrics.record(Metrics.Phase.INGEST, phaseStart, rowsRead - rowsBefore);
+        }
+    }
+
+    /**
+     * Splits a file into chunks that each start at the beginning of a line and
+     * fit in a single mapping window.
+     */
+    private void split(Path file, List<Chunk> chunks) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            bytesRead += size;
+            Metrics.add(Metrics.Counter.BYTES_READ, size);
+            long target = Math.max(MIN_CHUNK_SIZE, size / ((long) parallelism * CHUNKS_PER_THREAD));
+            target = Math.min(target, MappedFileReader.DEFAULT_WINDOW_SIZE);
+            ByteBuffer probe = ByteBuffer.allocate(4096);
+            long position = 0;
+            while (position < size) {
+                long end = position + target;
+                if (end >= size) {
+                    end = size;
+                } else {
+                    end = nextLineStart(channel, end, size, probe);
+                }
+                if (end - position > MappedFileReader.DEFAULT_WINDOW_SIZE) {
+                    throw new IOException("Line at offset " + position + " in " + file
+                            + " is longer than the mapping window");
+                }
+                chunks.add(new Chunk(file, position, end - position));
+                position = end;
+            }
+        }
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size, ByteBuffer probe)
+            throws IOException {
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static Parsed join(Future<Parsed> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * A region of a file that starts at the beginning of a line and ends just after
+     * a newline or at the end of the file.
+     */
+    private static final class Chunk {
+        private final Path file;
+        private final long position;
+        private final long length;
+
+        Chunk(Path file, long position, long length) {
+            this.file = file;
+            this.position = position;
+            this.length = length;
+        }
+
+        Parsed parse() {
+            List<ABCompany> companies = new ArrayList<>();
+            MappedFileReader reader = new MappedFileReader((number, name, product, ranking, country, prices, count) ->
+                    companies.add(new ABCompany(number, name, product, ranking, country, Arrays.copyOf(prices, count))));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                reader.parseLines(buffer, (int) length, true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new Parsed(new CompanyList.Batch(companies), length);
+        }
+    }
+
+    /** The companies parsed from one chunk, and the number of bytes they came from. */
+    private static final class Parsed {
+        private final CompanyList.Batch batch;
+        private final long length;
+
+        Parsed(CompanyList.Batch batch, long length) {
+            this.batch = batch;
+            this.length = length;
+        }
+    }
+
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Retrieves the load throughput in rows per second.
+     *
+     * @return rows per second over every read so far
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos > 0 ? rowsRead * 1e9 / elapsedNanos : 0;
+    }
+
+    /**
+     * Retrieves the load throughput in bytes per second.
+     *
+     * @return bytes per second over every read so far
+     */
+    public double getBytesPerSecond() {
+        return elapsedNanos > 0 ? bytesRead * 1e9 / elapsedNanos : 0;
+    }
+}
@@ -0,0 +1,132 @@
+package test;
+
+import java.util.Arrays;
+
+/**
+ * PriceHeap is an indexed binary heap over the companies of a {@link CompanyList},
+ * keyed by one share price of each company such as its maximum or minimum. Companies
+ * are identified by their position in the list, and the heap remembers where each
+ * position sits, so a company whose key changes is moved in O(log n) without
+ * searching. The first company is read in O(1).
+ * <p>
+ * Keys are compared with {@link Double#compare(double, double)}, so NaN is highest,
+ * and companies with equal keys are ordered by position, the way
+ * {@link SortedCompanyIndex} orders them. Everything is held in primitive arrays, so
+ * updates never allocate.
+ */
+class PriceHeap {
+    private final boolean highestFirst;
+    /** The key of each position. */
+    private double[] keys;
+    /** The position held by each heap slot. */
+    private int[] heap;
+    /** The heap slot of each position. */
+    private int[] slots;
+    private int size;
+
+    /**
+     * Creates an empty heap.
+     *
+     * @param highestFirst whether the highest key comes first rather than the lowest
+     * @param capacity     the number of companies to make room for
+     */
+    PriceHeap(boolean highestFirst, int capacity) {
+        this.highestFirst = highestFirst;
+        int length = Math.max(capacity, 16);
+        keys = new double[length];
+        heap = new int[length];
+        slots = new int[length];
+    }
+
+    /**
+     * Adds the company appended to the list at the next position.
+     */
+    void add(double key) {
+        if (size == heap.length) {
+            int length = size * 2;
+            keys = Arrays.copyOf(keys, length);
+            heap = Arrays.copyOf(heap, length);
+            slots = Arrays.copyOf(slots, length);
+        }
+        int position = size++;
+        keys[position] = key;
+        heap[position] = position;
+        slots[position] = position;
+        siftUp(position);
+    }
+
+    /**
+     * Moves a company whose key may have changed.
+     */
+    void update(int position, double key) {
+        double old = keys[position];
+        keys[position] = key;
+        int order = compareKeys(key, old);
+        if (order < 0) {
+            siftUp(slots[position]);
+        } else if (order > 0) {
+            siftDown(slots[position]);
+        }
+    }
+
+    /**
+     * @return the position of the first company, or -1 if the heap is empty
+     */
+    int first() {
+        return size > 0 ? heap[0] : -1;
+    }
+
+    /**
+     * @return the key of the first company, or NaN if the heap is empty
+     */
+    double firstKey() {
+        return size > 0 ? keys[heap[0]] : Double.NaN;
+    }
+
+    /** Orders keys so that the one that should come first is less. */
+    private int compareKeys(double a, double b) {
+        return highestFirst ? Double.compare(b, a) : Double.compare(a, b);
+    }
+
+    private boolean before(int a, int b) {
+        int order = compareKeys(keys[a], keys[b]);
+        return order < 0 || order == 0 && a < b;
+    }
+
+    private void siftUp(int slot) {
+        int position = heap[slot];
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (!before(position, heap[parent])) {
+                break;
+            }
+            place(heap[parent], slot);
+            slot = parent;
+        }
+        place(position, slot);
+    }
+
+    private void siftDown(int slot) {
+        int position = heap[slot];
+        while (true) {
+            int child = 2 * slot + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], position)) {
+                break;
+            }
+            place(heap[child], slot);
+            slot = child;
+        }
+        place(position, slot);
+    }
+
+    private void place(int position, int slot) {
+        heap[slot] = position;
+        slots[position] = slot;
+    }
+}
@@ -0,0 +1,332 @@
+package test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * PriceHistogram counts share prices by fixed-point value. Each price is rounded
+ * to whole cents, so 213.0 and 213.00000001 land in the same bucket, and then
+ * grouped into buckets of a configurable width. Counts are kept in a primitive
+ * open-addressing map from bucket to count, so adding prices does not allocate
+ * once the table has grown to the number of distinct buckets. NaN and infinite
+ * prices have no bucket and are counted separately, one count for each.
+ */
+public class PriceHistogram {
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Receives one bucket when iterating over the histogram.
+     */
+    public interface BucketConsumer {
+        /**
+         * @param bucketStartCents the lowest price in the bucket, in cents
+         * @param count            the number of prices in the bucket
+         */
+        void accept(long bucketStartCents, long count);
+    }
+
+    /**
+     * Receives one price and its count when iterating over the histogram including
+     * NaN and infinite prices.
+     */
+    public interface PriceConsumer {
+        /**
+         * @param price the lowest price in the bucket, or the NaN or infinite price
+         * @param count the number of prices counted under it
+         */
+        void accept(double price, long count);
+    }
+
+    private final long bucketWidthCents;
+    private long[] buckets;
+    /** Count for each bucket; 0 marks a free slot. */
+    private long[] counts;
+    private int size;
+    private int mask;
+    private long totalCount;
+    private long negativeInfinityCount;
+    private long positiveInfinityCount;
+    private long nanCount;
+
+    /**
+     * Creates a histogram with one bucket per cent.
+     */
+    public PriceHistogram() {
+        this(1);
+    }
+
+    /**
+     * Creates a histogram with the given bucket width.
+     *
+     * @param bucketWidthCents the width of each bucket in cents, for example 100 for whole units
+     */
+    public PriceHistogram(long bucketWidthCents) {
+        if (bucketWidthCents < 1) {
+            throw new IllegalArgumentException("bucket width must be at least one cent: " + bucketWidthCents);
+        }
+        this.bucketWidthCents = bucketWidthCents;
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Converts a price to whole cents, rounding half up.
+     *
+     * @param price the price
+     * @return the price in cents
+     */
+    public static long toCents(double price) {
+        return Math.round(price * 100);
+    }
+
+    /**
+     * Adds one price. NaN and infinite prices have no bucket and are counted on
+     * their own.
+     *
+     * @param price the price to add
+     */
+    public void add(double price) {
+        if (!Double.isFinite(price)) {
+            addNonFinite(price);
+            return;
+        }
+        long bucket = Math.floorDiv(toCents(price), bucketWidthCents) * bucketWidthCents;
+        int slot = mix(bucket) & mask;
+        while (counts[slot] != 0) {
+            if (buckets[slot] == bucket) {
+                counts[slot]++;
+                totalCount++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        buckets[slot] = bucket;
+        counts[slot] = 1;
+        totalCount++;
+        if (++size > counts.length / 4 * 3) {
+            rehash(counts.length * 2);
+        }
+    }
+
+    /**
+     * Adds a range of prices.
+     *
+     * @param prices the prices
+     * @param from   the first index to add, inclusive
+     * @param to     the last index to add, exclusive
+     */
+    public void add(double[] prices, int from, int to) {
+        for (int i = from; i < to; i++) {
+            add(prices[i]);
+        }
+    }
+
+    /**
+     * Adds every price in an array.
+     *
+     * @param prices the prices to add
+     */
+    public void addAll(double[] prices) {
+        add(prices, 0, prices.length);
+    }
+
+    /**
+     * Adds every bucket of another histogram with the same bucket width.
+     *
+     * @param other the histogram to merge into this one
+     */
+    public void merge(PriceHistogram other) {
+        if (other.bucketWidthCents != bucketWidthCents) {
+            throw new IllegalArgumentException("Cannot merge bucket widths " + other.bucketWidthCents
+                    + " and " + bucketWidthCents);
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] != 0) {
+                addCount(other.buckets[i], other.counts[i]);
+            }
+        }
+        negativeInfinityCount += other.negativeInfinityCount;
+        positiveInfinityCount += other.positiveInfinityCount;
+        nanCount += other.nanCount;
+    }
+
+    private void addNonFinite(double price) {
+        if (Double.isNaN(price)) {
+            nanCount++;
+        } else if (price > 0) {
+            positiveInfinityCount++;
+        } else {
+            negativeInfinityCount++;
+        }
+    }
+
+    private void addCount(long bucket, long count) {
+        int slot = mix(bucket) & mask;
+        while (counts[slot] != 0) {
+            if (buckets[slot] == bucket) {
+                counts[slot] += count;
+                totalCount += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        buckets[slot] = bucket;
+        counts[slot] = count;
+        totalCount += count;
+        if (++size > counts.length / 4 * 3) {
+            rehash(counts.length * 2);
+        }
+    }
+
+    /**
+     * Retrieves the number of prices in the bucket holding a price. For NaN or an
+     * infinite price this is the number of those prices added.
+     *
+     * @param price the price to look up
+     * @return the count of that bucket, or 0 if it is empty
+     */
+    public long getCount(double price) {
+        if (Double.isNaN(price)) {
+            return nanCount;
+        } else if (price == Double.POSITIVE_INFINITY) {
+            return positiveInfinityCount;
+        } else if (price == Double.NEGATIVE_INFINITY) {
+            return negativeInfinityCount;
+        }
+        long bucket = Math.floorDiv(toCents(price), bucketWidthCents) * bucketWidthCents;
+        int slot = mix(bucket) & mask;
+        while (counts[slot] != 0) {
+            if (buckets[slot] == bucket) {
+                return counts[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Visits every non-empty bucket in no particular order, without allocating.
+     *
+     * @param consumer the consumer to receive each bucket
+     */
+    public void forEach(BucketConsumer consumer) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                consumer.accept(buckets[i], counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Visits every non-empty bucket in ascending price order. NaN and infinite prices
+     * are not visited; see {@link #forEachPriceSorted(PriceConsumer)}.
+     *
+     * @param consumer the consumer to receive each bucket
+     */
+    public void forEachSorted(BucketConsumer consumer) {
+        long[] sorted = new long[size];
+        int n = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                sorted[n++] = buckets[i];
+            }
+        }
+        Arrays.sort(sorted);
+        for (long bucket : sorted) {
+            consumer.accept(bucket, counts[find(bucket)]);
+        }
+    }
+
+    /**
+     * Visits every non-empty bucket by its start price and then any NaN and infinite
+     * prices, all in the order of {@link Double#compare}: negative infinity first,
+     * then the buckets in ascending order, then positive infinity and NaN.
+     *
+     * @param consumer the consumer to receive each price and its count
+     */
+    public void forEachPriceSorted(PriceConsumer consumer) {
+        if (negativeInfinityCount > 0) {
+            consumer.accept(Double.NEGATIVE_INFINITY, negativeInfinityCount);
+        }
+        forEachSorted((bucket, count) -> consumer.accept(bucket / 100.0, count));
+        if (positiveInfinityCount > 0) {
+            consumer.accept(Double.POSITIVE_INFINITY, positiveInfinityCount);
+        }
+        if (nanCount > 0) {
+            consumer.accept(Double.NaN, nanCount);
+        }
+    }
+
+    /**
+     * Copies the histogram into a map from bucket start price to count, in the order
+     * of {@link #forEachPriceSorted(PriceConsumer)}. NaN and infinite prices keep an
+     * entry each, as they had when the frequency was a map of boxed prices.
+     *
+     * @return a new {@code Map<Double, Long>} of the non-empty buckets
+     */
+    public Map<Double, Long> toMap() {
+        Map<Double, Long> map = new LinkedHashMap<>();
+        forEachPriceSorted(map::put);
+        return map;
+    }
+
+    public long getBucketWidthCents() {
+        return bucketWidthCents;
+    }
+
+    /**
+     * @return the number of non-empty buckets
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of finite prices added
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return the number of NaN or infinite prices added, which have no bucket
+     */
+    public long getNonFiniteCount() {
+        return negativeInfinityCount + positiveInfinityCount + nanCount;
+    }
+
+    private int find(long bucket) {
+        int slot = mix(bucket) & mask;
+        while (buckets[slot] != bucket || counts[slot] == 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldBuckets = buckets;
+        long[] oldCounts = counts;
+        allocate(capacity);
+        for (int i = 0; i < oldCounts.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = mix(oldBuckets[i]) & mask;
+                while (counts[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                buckets[slot] = oldBuckets[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        buckets = new long[capacity];
+        counts = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,112 @@
+package test;
+
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * PriceSketches pairs a {@link QuantileSketch} and a {@link DistinctCountSketch} over
+ * the same share prices, so one pass fills both. A list of companies can be sketched
+ * in parallel: it is split into chunks on a fork-join pool, each chunk is sketched on
+ * its own, and the chunk sketches are merged pairwise as the tasks join. The chunks
+ * depend only on the size of the list, so the results are the same whatever the
+ * number of threads.
+ */
+public class PriceSketches {
+    /** Number of companies below which a chunk is sketched without splitting further. */
+    private static final int CHUNK_SIZE = 1 << 14;
+
+    private final QuantileSketch quantiles;
+    private final DistinctCountSketch distinctPrices;
+
+    /**
+     * Creates empty sketches with the default accuracy.
+     */
+    public PriceSketches() {
+        this(QuantileSketch.DEFAULT_K, DistinctCountSketch.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates empty sketches.
+     *
+     * @param k         the accuracy parameter of the quantile sketch
+     * @param precision the precision of the distinct count sketch
+     */
+    public PriceSketches(int k, int precision) {
+        this.quantiles = new QuantileSketch(k);
+        this.distinctPrices = new DistinctCountSketch(precision);
+    }
+
+    /**
+     * Sketches the share prices of every company in a list on a fork-join pool.
+     *
+     * @param companies the companies whose share prices are sketched
+     * @param pool      the pool that runs the chunks
+     * @return the sketches of every share price, with the default accuracy
+     */
+    public static PriceSketches of(List<ABCompany> companies, ForkJoinPool pool) {
+        List<ABCompany> list = companies instanceof RandomAccess ? companies : List.copyOf(companies);
+        return pool.invoke(new ChunkTask(list, 0, list.size()));
+    }
+
+    /**
+     * Adds share prices to both sketches.
+     *
+     * @param prices the prices to add
+     */
+    public void addAll(double[] prices) {
+        quantiles.addAll(prices);
+        distinctPrices.addAll(prices);
+    }
+
+    /**
+     * Folds other sketches into these. The other sketches are not changed.
+     *
+     * @param other sketches with the same accuracy
+     */
+    public void merge(PriceSketches other) {
+        quantiles.merge(other.quantiles);
+        distinctPrices.merge(other.distinctPrices);
+    }
+
+    public QuantileSketch getQuantiles() {
+        return quantiles;
+    }
+
+    public DistinctCountSketch getDistinctPrices() {
+        return distinctPrices;
+    }
+
+    /** Sketches a range of the list, splitting it in half until it is one chunk. */
+    private static final class ChunkTask extends RecursiveTask<PriceSketches> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<ABCompany> companies;
+        private final int from;
+        private final int to;
+
+        ChunkTask(List<ABCompany> companies, int from, int to) {
+            this.companies = companies;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected PriceSketches compute() {
+            if (to - from <= CHUNK_SIZE) {
+                PriceSketches sketches = new PriceSketches();
+                for (int i = from; i < to; i++) {
+                    sketches.addAll(companies.get(i).getSharePrices());
+                }
+                return sketches;
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask right = new ChunkTask(companies, middle, to);
+            right.fork();
+            PriceSketches left = new ChunkTask(companies, from, middle).compute();
+            left.merge(right.join());
+            return left;
+        }
+    }
+}
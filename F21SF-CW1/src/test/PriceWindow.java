@@ -0,0 +1,219 @@
+package test;
+
+/**
+ * PriceWindow keeps the most recent share prices of a company in a fixed-capacity
+ * ring buffer. Appending a price evicts the oldest one once the window is full.
+ * <p>
+ * The rolling average, maximum and minimum are maintained as prices arrive: a
+ * running sum for the average, and two monotonic deques of ring slots for the
+ * maximum and minimum, so each tick costs O(1) amortized and each read is O(1).
+ * Most companies are never ticked, so the deques are only allocated by the first
+ * appended price; until then the maximum and minimum are found by scanning the
+ * ring, which holds no more than the initial prices. The running sum is recomputed from the window once every {@code capacity}
+ * evictions so rounding errors from subtracting evicted prices cannot build up.
+ * NaN prices make the window statistics NaN while they are in the window, as they
+ * would for a full scan.
+ */
+public class PriceWindow {
+    private final double[] ring;
+    /** Ring slots of prices that can still become the max or min, oldest first; null until the first append. */
+    private int[] maxDeque;
+    private int[] minDeque;
+    private int maxHead;
+    private int maxSize;
+    private int minHead;
+    private int minSize;
+    /** Ring slot of the oldest price; the next price goes to {@code (start + count) % capacity}. */
+    private int start;
+    private int count;
+    private double sum;
+    private int nanCount;
+    private int evictionsSinceResum;
+
+    /**
+     * Creates a window holding the given prices, oldest first.
+     *
+     * @param prices   the initial prices, which are copied
+     * @param capacity the number of prices the window holds, at least {@code prices.length}
+     */
+    public PriceWindow(double[] prices, int capacity) {
+        if (capacity < 1 || capacity < prices.length) {
+            throw new IllegalArgumentException("capacity " + capacity + " cannot hold " + prices.length + " prices");
+        }
+        ring = new double[capacity];
+        System.arraycopy(prices, 0, ring, 0, prices.length);
+        count = prices.length;
+        for (double price : prices) {
+            if (Double.isNaN(price)) {
+                nanCount++;
+            }
+        }
+        // Start from the exact in-order sum so static prices average exactly
+        resum();
+    }
+
+    /**
+     * Appends a price, evicting the oldest price if the window is full.
+     *
+     * @param price the new price
+     */
+    public void add(double price) {
+        if (maxDeque == null) {
+            allocateDeques();
+        }
+        int capacity = ring.length;
+        int slot;
+        if (count == capacity) {
+            // The new price takes the slot of the oldest one
+            slot = start;
+            double old = ring[slot];
+            if (Double.isNaN(old)) {
+                nanCount--;
+            } else {
+                sum -= old;
+            }
+            if (maxSize > 0 && maxDeque[maxHead] == slot) {
+                maxHead = wrap(maxHead + 1);
+                maxSize--;
+            }
+            if (minSize > 0 && minDeque[minHead] == slot) {
+                minHead = wrap(minHead + 1);
+                minSize--;
+            }
+            start = wrap(start + 1);
+            evictionsSinceResum++;
+        } else {
+            slot = wrap(start + count);
+            count++;
+        }
+        ring[slot] = price;
+        if (Double.isNaN(price)) {
+            nanCount++;
+        } else {
+            sum += price;
+            push(slot, price);
+        }
+        if (evictionsSinceResum >= capacity) {
+            resum();
+        }
+    }
+
+    /** Builds the deques from the prices already in the ring. */
+    private void allocateDeques() {
+        maxDeque = new int[ring.length];
+        minDeque = new int[ring.length];
+        for (int i = 0; i < count; i++) {
+            int slot = wrap(start + i);
+            if (!Double.isNaN(ring[slot])) {
+                push(slot, ring[slot]);
+            }
+        }
+    }
+
+    /** Appends the slot of a new price to both deques, dropping the slots it outranks. */
+    private void push(int slot, double price) {
+        // Double.compare orders -0.0 below 0.0, matching Math.max and Math.min
+        while (maxSize > 0 && Double.compare(ring[maxDeque[wrap(maxHead + maxSize - 1)]], price) <= 0) {
+            maxSize--;
+        }
+        maxDeque[wrap(maxHead + maxSize++)] = slot;
+        while (minSize > 0 && Double.compare(ring[minDeque[wrap(minHead + minSize - 1)]], price) >= 0) {
+            minSize--;
+        }
+        minDeque[wrap(minHead + minSize++)] = slot;
+    }
+
+    /**
+     * @return the average of the prices in the window, or NaN if it is empty
+     */
+    public double getAverage() {
+        return nanCount > 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * @return the highest price in the window, or NaN if it is empty
+     */
+    public double getMax() {
+        if (nanCount > 0 || count == 0) {
+            return Double.NaN;
+        } else if (maxDeque == null) {
+            double max = ring[0];
+            for (int i = 1; i < count; i++) {
+                max = Math.max(max, ring[i]);
+            }
+            return max;
+        }
+        return ring[maxDeque[maxHead]];
+    }
+
+    /**
+     * @return the lowest price in the window, or NaN if it is empty
+     */
+    public double getMin() {
+        if (nanCount > 0 || count == 0) {
+            return Double.NaN;
+        } else if (minDeque == null) {
+            double min = ring[0];
+            for (int i = 1; i < count; i++) {
+                min = Math.min(min, ring[i]);
+            }
+            return min;
+        }
+        return ring[minDeque[minHead]];
+    }
+
+    /**
+     * @return the running sum of the prices in the window that are not NaN
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the number of NaN prices in the window
+     */
+    public int getNaNCount() {
+        return nanCount;
+    }
+
+    /**
+     * @return the number of prices in the window
+     */
+    public int size() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * Copies the prices in the window, oldest first.
+     *
+     * @return a new array of the prices in the window
+     */
+    public double[] toArray() {
+        double[] prices = new double[count];
+        int first = Math.min(count, ring.length - start);
+        System.arraycopy(ring, start, prices, 0, first);
+        System.arraycopy(ring, 0, prices, first, count - first);
+        return prices;
+    }
+
+    /** Wraps an index that is at most one lap past the end of the ring. */
+    private int wrap(int index) {
+        return index >= ring.length ? index - ring.length : index;
+    }
+
+    private void resum() {
+        double exact = 0;
+        for (int i = 0; i < count; i++) {
+            double price = ring[wrap(start + i)];
+            if (!Double.isNaN(price)) {
+                exact += price;
+            }
+        }
+        sum = exact;
+        evictionsSinceResum = 0;
+    }
+}
@@ -0,0 +1,259 @@
+package test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import test.GroupByAggregator.GroupKey;
+import test.GroupByAggregator.GroupStatistics;
+
+/**
+ * ReportWriter renders the company table and the summary report in a single pass.
+ * Every statistic in the summary is gathered in the same traversal that writes the
+ * company rows, and the whole report goes through one {@link TableRenderer} buffer
+ * and channel that is opened, written and closed once. The output is the same as
+ * writing the table and then appending the summary with a {@code PrintWriter}.
+ */
+public class ReportWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int NUM_WIDTH = 10;      // Width for company number
+    private static final int NAME_WIDTH = 26;     // Width for company name
+    private static final int SERVICE_WIDTH = 19;  // Width for product/service
+    private static final int RANK_WIDTH = 7;      // Width for ranking
+    private static final int COUNTRY_WIDTH = 15;  // Width for country
+    private static final int PRICE_WIDTH = 10;    // Width for each price
+    private static final String SEPARATOR = "+" + "-".repeat(NUM_WIDTH + 2)
+            + "+" + "-".repeat(NAME_WIDTH + 2)
+            + "+" + "-".repeat(SERVICE_WIDTH + 2)
+            + "+" + "-".repeat(RANK_WIDTH + 2)
+            + "+" + "-".repeat(COUNTRY_WIDTH + 2)
+            + "+" + "-".repeat(PRICE_WIDTH + 2) + "+";
+    private static final String CLOTHES = "clothes";
+    private static final String[] GROUP_HEADINGS = {"Companies", "Prices", "Average", "Minimum", "Maximum", "Spread"};
+    private static final String GROUP_SEPARATOR = "+" + "-".repeat(SERVICE_WIDTH + 2)
+            + ("+" + "-".repeat(PRICE_WIDTH + 2)).repeat(GROUP_HEADINGS.length) + "+";
+
+    private final Iterable<ABCompany> companies;
+    private final Charset charset = Charset.defaultCharset();
+
+    /**
+     * Creates a writer for the given companies.
+     *
+     * @param companies the companies to report on, in the order they are written
+     */
+    public ReportWriter(Iterable<ABCompany> companies) {
+        this.companies = companies;
+    }
+
+    /**
+     * Writes the company table to a file, replacing its contents.
+     *
+     * @param path the file to write to
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTable(Path path) throws IOException {
+        long start = Metrics.start();
+        long rows = 0;
+        try (TableRenderer out = open(path)) {
+            writeHeader(out);
+            for (ABCompany company : companies) {
+                writeRow(out, company);
+                rows++;
+            }
+        } catch (TableRenderer.RendererException e) {
+            throw e.getCause();
+        } finally {
+            Metrics.add(Metrics.Counter.REPORT_ROWS, rows);
+            Metrics.record(Metrics.Phase.REPORT, start, rows);
+        }
+    }
+
+    /**
+     * Writes the company table followed by the summary statistics and share price
+     * frequencies to a file, replacing its contents.
+     *
+     * @param path the file to write to
+     * @throws IOException if the file cannot be written
+     */
+    public void writeReport(Path path) throws IOException {
+        writeReport(path, Collections.emptyMap());
+    }
+
+    /**
+     * Writes the report of {@link #writeReport(Path)} followed by one table of share
+     * price statistics per grouping, such as the results of a {@link GroupByAggregator}.
+     *
+     * @param path      the file to write to
+     * @param groupings the statistics of each group, by the attribute they are grouped by
+     * @throws IOException if the file cannot be written
+     */
+    public void writeReport(Path path, Map<GroupKey, List<GroupStatistics>> groupings) throws IOException {
+        long start = Metrics.start();
+        long rows = 0;
+        try (TableRenderer out = open(path)) {
+            writeHeader(out);
+
+            long priceCount = 0;
+            double priceSum = 0;
+            double priceMin = Double.POSITIVE_INFINITY;
+            double priceMax = Double.NEGATIVE_INFINITY;
+            ABCompany highestPriceCompany = null;
+            double highestPrice = Double.NaN;
+            long companiesProducingClothes = 0;
+            PriceHistogram sharePriceFrequency = new PriceHistogram();
+
+            // Matches the product case-insensitively by comparing folded dictionary codes
+            int clothes = StringDictionary.SHARED.findFoldedCode(CLOTHES);
+            for (ABCompany company : companies) {
+                writeRow(out, company);
+                rows++;
+
+                double[] prices = company.getSharePrices();
+                for (double price : prices) {
+                    priceCount++;
+                    priceSum += price;
+                    priceMin = Math.min(priceMin, price);
+                    priceMax = Math.max(priceMax, price);
+                }
+                sharePriceFrequency.addAll(prices);
+                double companyMax = company.getMaxSharePrice();
+                if (highestPriceCompany == null || Double.compare(companyMax, highestPrice) > 0) {
+                    highestPriceCompany = company;
+                    highestPrice = companyMax;
+                }
+                if (clothes != StringDictionary.NULL_CODE
+                        && StringDictionary.SHARED.foldedCode(company.getProductOrServiceCode()) == clothes) {
+                    companiesProducingClothes++;
+                }
+            }
+
+            if (highestPriceCompany != null) {
+                out.text("\nCompany with the Highest Share Price:");
+                out.newLine();
+                out.text(highestPriceCompany.getFullDetails());
+                out.newLine();
+                out.newLine();
+            }
+
+            out.text("Summary Statistics:");
+            out.newLine();
+            out.text("Average Share Price: ");
+            out.price(priceCount > 0 ? priceSum / priceCount : Double.NaN);
+            out.newLine();
+            out.text("Minimum Share Price: ");
+            out.price(priceCount > 0 ? priceMin : Double.NaN);
+            out.newLine();
+            out.text("Maximum Share Price: ");
+            out.price(priceCount > 0 ? priceMax : Double.NaN);
+            out.newLine();
+            out.text("Number of Companies Producing Clothes: ");
+            out.decimal(companiesProducingClothes);
+            out.newLine();
+
+            out.text("Share Price Frequency:");
+            out.newLine();
+            sharePriceFrequency.forEachPriceSorted((price, frequency) -> {
+                out.text("Price: ");
+                out.price(price);
+                out.text(", Frequency: ");
+                out.decimal(frequency);
+                out.newLine();
+            });
+
+            for (Map.Entry<GroupKey, List<GroupStatistics>> grouping : groupings.entrySet()) {
+                writeGroups(out, grouping.getKey(), grouping.getValue());
+            }
+        } catch (TableRenderer.RendererException e) {
+            throw e.getCause();
+        } finally {
+            Metrics.add(Metrics.Counter.REPORT_ROWS, rows);
+            Metrics.record(Metrics.Phase.REPORT, start, rows);
+        }
+    }
+
+    private TableRenderer open(Path path) throws IOException {
+        return new TableRenderer(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING), charset, BUFFER_SIZE);
+    }
+
+    private void writeHeader(TableRenderer out) {
+        out.text("| ");
+        out.text("Number", NUM_WIDTH);
+        out.text(" | ");
+        out.text("Name", NAME_WIDTH);
+        out.text(" | ");
+        out.text("Service", SERVICE_WIDTH);
+        out.text(" | ");
+        out.text("Rank", RANK_WIDTH);
+        out.text(" | ");
+        out.text("Country", COUNTRY_WIDTH);
+        out.text(" | ");
+        out.text("Prices", PRICE_WIDTH);
+        out.text(" |");
+        out.newLine();
+        // Print a line to separate the header from the data
+        out.text(SEPARATOR);
+        out.newLine();
+    }
+
+    private void writeGroups(TableRenderer out, GroupKey key, List<GroupStatistics> groups) {
+        out.newLine();
+        out.text("Share Prices by " + key.getLabel() + ":");
+        out.newLine();
+        out.text("| ");
+        out.text(key.getLabel(), SERVICE_WIDTH);
+        for (String heading : GROUP_HEADINGS) {
+            out.text(" | ");
+            out.text(heading, PRICE_WIDTH);
+        }
+        out.text(" |");
+        out.newLine();
+        out.text(GROUP_SEPARATOR);
+        out.newLine();
+        for (GroupStatistics group : groups) {
+            out.text("| ");
+            out.text(group.getLabel(), SERVICE_WIDTH);
+            out.text(" | ");
+            out.integer(group.getCompanyCount(), PRICE_WIDTH);
+            out.text(" | ");
+            out.integer(group.getPriceCount(), PRICE_WIDTH);
+            out.text(" | ");
+            out.price(group.getAverage(), PRICE_WIDTH);
+            out.text(" | ");
+            out.price(group.getMin(), PRICE_WIDTH);
+            out.text(" | ");
+            out.price(group.getMax(), PRICE_WIDTH);
+            out.text(" | ");
+            out.price(group.getSpread(), PRICE_WIDTH);
+            out.text(" |");
+            out.newLine();
+        }
+    }
+
+    private void writeRow(TableRenderer out, ABCompany company) {
+        out.text("| ");
+        out.integer(company.getCompanyNumber(), NUM_WIDTH);
+        out.text(" | ");
+        out.text(company.getCompanyName(), NAME_WIDTH);
+        out.text(" | ");
+        out.text(company.getProductOrService(), SERVICE_WIDTH);
+        out.text(" | ");
+        out.integer(company.getRanking(), RANK_WIDTH);
+        out.text(" | ");
+        out.text(company.getCountry(), COUNTRY_WIDTH);
+        out.text(" | ");
+        // Each price takes PRICE_WIDTH - 2 characters, and the whole list is padded to PRICE_WIDTH
+        int pricesWidth = 0;
+        for (double price : company.getSharePrices()) {
+            pricesWidth += out.price(price, PRICE_WIDTH - 2);
+        }
+        out.spaces(PRICE_WIDTH - pricesWidth);
+        out.text(" |");
+        out.newLine();
+    }
+}
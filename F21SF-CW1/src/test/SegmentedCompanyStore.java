@@ -0,0 +1,805 @@
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * SegmentedCompanyStore keeps companies on disk instead of in the heap, for datasets
+ * that do not fit in memory. Companies are appended to fixed-size segments of
+ * {@code companiesPerSegment} companies; each full segment is written to its own file
+ * in a directory and only read back when a query needs it. Decoded segments, called
+ * pages, are kept in a bounded LRU cache, so memory use depends on the segment size
+ * and the cache size rather than the number of companies.
+ * <p>
+ * Each segment file records the lowest and highest company number it holds and a
+ * Bloom filter of its numbers, and both are kept in memory, at about ten bits per
+ * company for the filters. A lookup by number only reads the segments whose range
+ * contains the number and whose filter may hold it, which is the segment holding it
+ * and, one time in a hundred or so, another one.
+ * Statistics, counts, histograms and reports stream through every segment in order.
+ * Scans use a page that is already cached but do not add the pages they read, so a
+ * full scan does not evict the pages that lookups are using.
+ * <p>
+ * The companies returned are copies: changing them does not change the store.
+ * Company numbers are unique: appending a number that is already in the store is
+ * rejected, and the same filters keep that check from reading the written segments
+ * for new numbers. A store is not thread-safe.
+ * <pre>
+ * file:    segment-NNNNNN.seg, one per segment, the last one possibly partial
+ * header:  magic, version, segment capacity, company count, lowest number,
+ *          highest number, filter length in longs, payload length, payload CRC-32
+ * payload: the number filter's bits, then per company: number, ranking, name,
+ *          product or service, country (length-prefixed UTF-8, -1 for null),
+ *          price count, prices
+ * </pre>
+ */
+public class SegmentedCompanyStore implements Closeable {
+    private static final int MAGIC = 0x41425347; // "ABSG"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 4 + 4 + 4 + 4 + 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int companiesPerSegment;
+    private final int cachedPages;
+    /** Number range and filter of each full segment; the partial tail segment is kept in memory. */
+    private int segmentCount;
+    private int[] minNumbers = new int[16];
+    private int[] maxNumbers = new int[16];
+    private NumberFilter[] filters = new NumberFilter[16];
+    /** Number range of all full segments together, so numbers past it skip the per-segment checks. */
+    private int lowestNumber = Integer.MAX_VALUE;
+    private int highestNumber = Integer.MIN_VALUE;
+    private final List<ABCompany> tail = new ArrayList<>();
+    private final IntIndexMap tailPositions = new IntIndexMap();
+    private boolean tailWritten = true;
+    private final LinkedHashMap<Integer, Page> cache;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private double[] statistics;
+
+    /**
+     * Opens the store in a directory, creating the directory if needed. Segments
+     * already in it are picked up, and the last one if partial is read back so that
+     * new companies continue to fill it.
+     *
+     * @param directory           the directory holding the segment files
+     * @param companiesPerSegment the number of companies in each full segment
+     * @param cachedPages         the largest number of decoded segments kept in memory
+     * @throws IOException if the directory cannot be created, or an existing segment
+     *                     cannot be read or was written with another segment size
+     */
+    public SegmentedCompanyStore(Path directory, int companiesPerSegment, int cachedPages) throws IOException {
+        if (companiesPerSegment < 1) {
+            throw new IllegalArgumentException("companiesPerSegment must be at least 1: " + companiesPerSegment);
+        }
+        if (cachedPages < 1) {
+            throw new IllegalArgumentException("cachedPages must be at least 1: " + cachedPages);
+        }
+        this.directory = directory;
+        this.companiesPerSegment = companiesPerSegment;
+        this.cachedPages = cachedPages;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                if (size() > SegmentedCompanyStore.this.cachedPages) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        Files.createDirectories(directory);
+        openSegments();
+    }
+
+    private void openSegments() throws IOException {
+        List<Path> files;
+        try (Stream<Path> entries = Files.list(directory)) {
+            files = entries.filter(this::isSegmentFile).sorted().collect(Collectors.toList());
+        }
+        for (int i = 0; i < files.size(); i++) {
+            if (!files.get(i).equals(segmentPath(i))) {
+                throw new IOException("Segment " + segmentPath(i) + " is missing");
+            }
+            ByteBuffer header = readHeader(files.get(i));
+            if (header.getInt(8) != companiesPerSegment) {
+                throw new IOException("Segment " + files.get(i) + " was written with another segment size");
+            }
+            int count = header.getInt(12);
+            if (count < companiesPerSegment) {
+                if (i != files.size() - 1) {
+                    throw new IOException("Segment " + files.get(i) + " is partial but not the last segment");
+                }
+                try {
+                    for (ABCompany company : readPage(i).companies) {
+                        appendToTail(company);
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Segment " + files.get(i) + " repeats a company number", e);
+                }
+                tailWritten = true;
+            } else {
+                addSegment(header.getInt(16), header.getInt(20), readFilter(files.get(i), header.getInt(24)));
+            }
+        }
+    }
+
+    /**
+     * Parses every record in an input file and appends it, without holding more than
+     * one segment of parsed companies in memory.
+     *
+     * @param filename the name of the file to read from
+     * @return the number of companies read
+     * @throws IOException if the file cannot be read or a segment cannot be written
+     * @throws IllegalArgumentException if a company number is already in the store
+     */
+    public long readFromFile(String filename) throws IOException {
+        MappedFileReader reader = new MappedFileReader((number, name, product, ranking, country, prices, count) -> {
+            try {
+                add(new ABCompany(number, name, product, ranking, country, Arrays.copyOf(prices, count)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        try {
+            return reader.read(filename);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Appends a company, writing out the current segment once it is full.
+     *
+     * @param company the company to append; its current values are copied
+     * @throws IOException if a full segment cannot be written
+     * @throws IllegalArgumentException if a company with the same number is already in the store
+     * @throws UncheckedIOException if a segment that may hold the number cannot be read
+     */
+    public void append(ABCompany company) throws IOException {
+        add(new ABCompany(company.getCompanyNumber(), company.getCompanyName(), company.getProductOrService(),
+                company.getRanking(), company.getCountry(), company.getSharePrices()));
+    }
+
+    private void add(ABCompany company) throws IOException {
+        if (containsInSegments(company.getCompanyNumber())) {
+            throw new IllegalArgumentException("Duplicate company number: " + company.getCompanyNumber());
+        }
+        appendToTail(company);
+        tailWritten = false;
+        statistics = null;
+        if (tail.size() == companiesPerSegment) {
+            int first = tail.get(0).getCompanyNumber();
+            int min = first;
+            int max = first;
+            for (ABCompany c : tail) {
+                min = Math.min(min, c.getCompanyNumber());
+                max = Math.max(max, c.getCompanyNumber());
+            }
+            NumberFilter filter = writeSegment(segmentCount, tail);
+            addSegment(min, max, filter);
+            tail.clear();
+            tailPositions.clear();
+            tailWritten = true;
+        }
+    }
+
+    private void appendToTail(ABCompany company) {
+        if (tailPositions.containsKey(company.getCompanyNumber())) {
+            throw new IllegalArgumentException("Duplicate company number: " + company.getCompanyNumber());
+        }
+        tailPositions.put(company.getCompanyNumber(), tail.size());
+        tail.add(company);
+    }
+
+    private void addSegment(int minNumber, int maxNumber, NumberFilter filter) {
+        if (segmentCount == minNumbers.length) {
+            minNumbers = Arrays.copyOf(minNumbers, segmentCount * 2);
+            maxNumbers = Arrays.copyOf(maxNumbers, segmentCount * 2);
+            filters = Arrays.copyOf(filters, segmentCount * 2);
+        }
+        minNumbers[segmentCount] = minNumber;
+        maxNumbers[segmentCount] = maxNumber;
+        filters[segmentCount] = filter;
+        lowestNumber = Math.min(lowestNumber, minNumber);
+        highestNumber = Math.max(highestNumber, maxNumber);
+        segmentCount++;
+    }
+
+    /**
+     * Checks whether a full segment is already in the store holding a company number.
+     * Only segments that {@link #mayHold(int, int)} the number are read, without
+     * adding them to the cache.
+     */
+    private boolean containsInSegments(int companyNumber) {
+        if (companyNumber < lowestNumber || companyNumber > highestNumber) {
+            return false;
+        }
+        for (int i = 0; i < segmentCount; i++) {
+            if (mayHold(i, companyNumber) && page(i, false).positions.containsKey(companyNumber)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks a segment's number range and filter. A false positive of the filter costs
+     * one read of a segment that turns out not to hold the number.
+     */
+    private boolean mayHold(int segment, int companyNumber) {
+        return companyNumber >= minNumbers[segment] && companyNumber <= maxNumbers[segment]
+                && filters[segment].mightContain(companyNumber);
+    }
+
+    /**
+     * Writes the partial last segment, so the companies in it are on disk as well.
+     *
+     * @throws IOException if the segment cannot be written
+     */
+    public void flush() throws IOException {
+        if (!tailWritten) {
+            writeSegment(segmentCount, tail);
+            tailWritten = true;
+        }
+    }
+
+    /**
+     * Flushes the store. The cache is dropped, but the store can still be used.
+     *
+     * @throws IOException if the partial last segment cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        cache.clear();
+    }
+
+    /**
+     * @return the number of companies in the store
+     */
+    public long size() {
+        return (long) segmentCount * companiesPerSegment + tail.size();
+    }
+
+    /**
+     * Retrieves a company by its company number, reading only the segments whose
+     * number range and filter admit it.
+     *
+     * @param companyNumber The number to search for.
+     * @return A copy of the company with that number, or null if not found.
+     * @throws UncheckedIOException if a segment cannot be read
+     */
+    public ABCompany getCompanyByNumber(int companyNumber) {
+        if (companyNumber >= lowestNumber && companyNumber <= highestNumber) {
+            for (int i = 0; i < segmentCount; i++) {
+                if (mayHold(i, companyNumber)) {
+                    Page page = page(i, true);
+                    int position = page.positions.get(companyNumber);
+                    if (position >= 0) {
+                        return copy(page.companies[position]);
+                    }
+                }
+            }
+        }
+        int position = tailPositions.get(companyNumber);
+        return position >= 0 ? copy(tail.get(position)) : null;
+    }
+
+    /**
+     * Lists every company in order, reading one segment at a time. Suitable for
+     * {@link ReportWriter}, which reads the companies in a single pass.
+     *
+     * @return copies of the companies, read from disk as they are iterated
+     */
+    public Iterable<ABCompany> companies() {
+        return CompanyIterator::new;
+    }
+
+    /**
+     * Calculates count, sum, min and max over every share price by streaming through
+     * the segments. Each page keeps its prices in one column, which is handed to
+     * {@link PriceKernels} whole, so the vector kernel is used when it is available.
+     * With the scalar kernel the prices are added in the same order as
+     * {@link CompanyList#getSharePriceStatistics()}; with the vector kernel the sum can
+     * differ from it in the last few bits. The result is kept until the next company
+     * is appended.
+     *
+     * @return An array of doubles containing the count, sum, minimum, and maximum share price values.
+     *         The minimum and maximum are {@code Double.NaN} if there are no share prices.
+     */
+    public double[] getSharePriceStatistics() {
+        if (statistics == null) {
+            long start = Metrics.start();
+            double[] totals = PriceKernels.start();
+            for (int i = 0; i < segmentCount; i++) {
+                Page page = page(i, false);
+                PriceKernels.accumulate(totals, page.prices, 0, page.priceCount);
+            }
+            for (ABCompany company : tail) {
+                double[] prices = company.getSharePrices();
+                PriceKernels.accumulate(totals, prices, 0, prices.length);
+            }
+            statistics = PriceKernels.finish(totals);
+            Metrics.increment(Metrics.Counter.SCANS);
+            Metrics.record(Metrics.Phase.SCAN, start, size());
+        }
+        return statistics.clone();
+    }
+
+    /**
+     * Computes the average share price across all companies.
+     *
+     * @return The average share price, or {@code Double.NaN} if there are no share prices.
+     */
+    public double getAverageSharePrice() {
+        double[] totals = getSharePriceStatistics();
+        return totals[0] > 0 ? totals[1] / totals[0] : Double.NaN;
+    }
+
+    /**
+     * Finds the company with the highest share price. When several companies share
+     * the highest price the one added first is returned.
+     *
+     * @return A copy of that company, or null if the store is empty.
+     */
+    public ABCompany getCompanyWithHighestSharePrice() {
+        ABCompany[] best = new ABCompany[1];
+        double[] bestPrice = {Double.NaN};
+        forEach(company -> {
+            double companyMax = company.getMaxSharePrice();
+            if (best[0] == null || Double.compare(companyMax, bestPrice[0]) > 0) {
+                best[0] = company;
+                bestPrice[0] = companyMax;
+            }
+        });
+        return best[0] == null ? null : copy(best[0]);
+    }
+
+    /**
+     * Counts the companies that produce a given product or service, ignoring case.
+     *
+     * @param productOrService The product or service to match against the companies.
+     * @return The number of companies producing the specified product or service.
+     */
+    public long countCompaniesProducing(String productOrService) {
+        int code = StringDictionary.SHARED.findFoldedCode(productOrService);
+        return countMatching(ABCompany::getProductOrServiceCode, code);
+    }
+
+    /**
+     * Counts the companies based in a given country, ignoring case.
+     *
+     * @param country The country to match against the companies.
+     * @return The number of companies based in the specified country.
+     */
+    public long countCompaniesInCountry(String country) {
+        int code = StringDictionary.SHARED.findFoldedCode(country);
+        return countMatching(ABCompany::getCountryCode, code);
+    }
+
+    private long countMatching(ToIntFunction<ABCompany> attribute, int foldedCode) {
+        if (foldedCode == StringDictionary.NULL_CODE) {
+            return 0;
+        }
+        long[] count = new long[1];
+        forEach(company -> {
+            if (StringDictionary.SHARED.foldedCode(attribute.applyAsInt(company)) == foldedCode) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Counts every share price in a primitive fixed-point histogram.
+     *
+     * @param bucketWidthCents the width of each bucket in cents
+     * @return the histogram of all share prices
+     */
+    public PriceHistogram getSharePriceHistogram(long bucketWidthCents) {
+        PriceHistogram histogram = new PriceHistogram(bucketWidthCents);
+        forEach(company -> histogram.addAll(company.getSharePrices()));
+        return histogram;
+    }
+
+    /**
+     * Creates a frequency map of share prices, rounded to whole cents.
+     * Matches {@link CompanyList#getSharePriceFrequency()}.
+     *
+     * @return A {@code Map<Double, Long>} where the key is the share price and the value is the frequency.
+     */
+    public Map<Double, Long> getSharePriceFrequency() {
+        return getSharePriceHistogram(1).toMap();
+    }
+
+    public int getSegmentCount() {
+        return segmentCount + (tail.isEmpty() ? 0 : 1);
+    }
+
+    public long getCacheHits() {
+        return hits;
+    }
+
+    public long getCacheMisses() {
+        return misses;
+    }
+
+    public long getCacheEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Describes the segments and the page cache counters.
+     *
+     * @return a one-line summary
+     */
+    public String describeCache() {
+        long requests = hits + misses;
+        return String.format("%d companies in %d segments of %d; page cache holds %d of %d pages: "
+                        + "%d hits, %d misses (%.1f%% hit rate), %d evictions",
+                size(), getSegmentCount(), companiesPerSegment, cache.size(), cachedPages,
+                hits, misses, requests > 0 ? 100.0 * hits / requests : 0, evictions);
+    }
+
+    /** Copies a company, so callers cannot change a cached page or the tail. */
+    private static ABCompany copy(ABCompany company) {
+        return new ABCompany(company.getCompanyNumber(), company.getCompanyName(), company.getProductOrService(),
+                company.getRanking(), company.getCountry(), company.getSharePrices());
+    }
+
+    /** Visits every company in order, reading segments through the cache without filling it. */
+    private void forEach(Consumer<ABCompany> action) {
+        for (int i = 0; i < segmentCount; i++) {
+            for (ABCompany company : page(i, false).companies) {
+                action.accept(company);
+            }
+        }
+        tail.forEach(action);
+    }
+
+    /**
+     * Returns a decoded segment, from the cache when it is there.
+     *
+     * @param retain whether a page read from disk is added to the cache
+     */
+    private Page page(int segment, boolean retain) {
+        Page page = cache.get(segment);
+        if (page != null) {
+            hits++;
+            Metrics.increment(Metrics.Counter.PAGE_HITS);
+            return page;
+        }
+        misses++;
+        Metrics.increment(Metrics.Counter.PAGE_MISSES);
+        try {
+            page = readPage(segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (retain) {
+            cache.put(segment, page);
+        }
+        return page;
+    }
+
+    /** Writes a segment and returns the filter of its numbers, which is written with it. */
+    private NumberFilter writeSegment(int segment, List<ABCompany> companies) throws IOException {
+        NumberFilter filter = new NumberFilter(companies.size());
+        for (ABCompany company : companies) {
+            filter.add(company.getCompanyNumber());
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(filter.words.length * 8 + companies.size() * 96);
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            for (long word : filter.words) {
+                out.writeLong(word);
+            }
+            for (ABCompany company : companies) {
+                out.writeInt(company.getCompanyNumber());
+                out.writeInt(company.getRanking());
+                writeString(out, company.getCompanyName());
+                writeString(out, company.getProductOrService());
+                writeString(out, company.getCountry());
+                double[] prices = company.getSharePrices();
+                out.writeInt(prices.length);
+                for (double price : prices) {
+                    out.writeDouble(price);
+                }
+                min = Math.min(min, company.getCompanyNumber());
+                max = Math.max(max, company.getCompanyNumber());
+            }
+        }
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(companiesPerSegment)
+                .putInt(companies.size())
+                .putInt(min)
+                .putInt(max)
+                .putInt(filter.words.length)
+                .putInt(bytes.length)
+                .putLong(crc.getValue())
+                .flip();
+
+        // Written under a temporary name and moved into place, so readers never see a partial segment
+        Path file = segmentPath(segment);
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer body = ByteBuffer.wrap(bytes);
+                while (header.hasRemaining() || body.hasRemaining()) {
+                    channel.write(new ByteBuffer[] {header, body});
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        Metrics.add(Metrics.Counter.BYTES_WRITTEN, HEADER_BYTES + bytes.length);
+        return filter;
+    }
+
+    private Page readPage(int segment) throws IOException {
+        Path file = segmentPath(segment);
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        Metrics.add(Metrics.Counter.BYTES_READ, buffer.capacity());
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Segment " + file + " has an unknown format");
+            }
+            if (buffer.getInt() != companiesPerSegment) {
+                throw new IOException("Segment " + file + " was written with another segment size");
+            }
+            int count = buffer.getInt();
+            buffer.getInt(); // lowest number
+            buffer.getInt(); // highest number
+            int filterWords = buffer.getInt();
+            int payloadLength = buffer.getInt();
+            long checksum = buffer.getLong();
+            if (payloadLength != buffer.remaining()) {
+                throw new IOException("Segment " + file + " is truncated");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if (crc.getValue() != checksum) {
+                throw new IOException("Segment " + file + " failed its checksum");
+            }
+            buffer.position(buffer.position() + filterWords * Long.BYTES); // the filter is already in memory
+            ABCompany[] companies = new ABCompany[count];
+            IntIndexMap positions = new IntIndexMap();
+            double[] prices = new double[count * ABCompany.DEFAULT_WINDOW_CAPACITY];
+            int priceCount = 0;
+            for (int i = 0; i < count; i++) {
+                int number = buffer.getInt();
+                int ranking = buffer.getInt();
+                String name = readString(buffer);
+                String product = readString(buffer);
+                String country = readString(buffer);
+                int companyPrices = buffer.getInt();
+                if (companyPrices < 0 || companyPrices > buffer.remaining() / Double.BYTES) {
+                    throw new IOException("Segment " + file + " is corrupt");
+                }
+                if (priceCount + companyPrices > prices.length) {
+                    prices = Arrays.copyOf(prices, Math.max(prices.length * 2, priceCount + companyPrices));
+                }
+                for (int p = 0; p < companyPrices; p++) {
+                    prices[priceCount + p] = buffer.getDouble();
+                }
+                companies[i] = new ABCompany(number, name, product, ranking, country,
+                        Arrays.copyOfRange(prices, priceCount, priceCount + companyPrices));
+                priceCount += companyPrices;
+                if (!positions.containsKey(number)) {
+                    positions.put(number, i);
+                }
+            }
+            return new Page(companies, positions, prices, priceCount);
+        } catch (BufferUnderflowException | NegativeArraySizeException | IndexOutOfBoundsException e) {
+            throw new IOException("Segment " + file + " is corrupt", e);
+        }
+    }
+
+    private static ByteBuffer readHeader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Segment " + file + " has an unknown format");
+            }
+            return header;
+        }
+    }
+
+    /**
+     * Reads the number filter that follows a segment's header. The checksum covers it
+     * but is only verified when the whole segment is read.
+     */
+    private static NumberFilter readFilter(Path file, int words) throws IOException {
+        if (words < 1 || words > Integer.MAX_VALUE / Long.BYTES) {
+            throw new IOException("Segment " + file + " has a corrupt number filter");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer bytes = ByteBuffer.allocate(words * Long.BYTES);
+            while (bytes.hasRemaining() && channel.read(bytes, HEADER_BYTES + bytes.position()) >= 0) {
+                // keep reading until the filter is complete or the file ends
+            }
+            if (bytes.hasRemaining()) {
+                throw new IOException("Segment " + file + " is truncated");
+            }
+            bytes.flip();
+            long[] filter = new long[words];
+            bytes.asLongBuffer().get(filter);
+            return new NumberFilter(filter);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private boolean isSegmentFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX) && Files.isRegularFile(file);
+    }
+
+    /**
+     * A Bloom filter of the company numbers in a segment, with about ten bits and
+     * seven probes per number for a false positive rate under one percent. It never
+     * misses a number that was added.
+     */
+    private static final class NumberFilter {
+        private static final int BITS_PER_NUMBER = 10;
+        private static final int PROBES = 7;
+
+        private final long[] words;
+
+        NumberFilter(int numbers) {
+            this(new long[Math.max(1, (int) ((long) numbers * BITS_PER_NUMBER + 63 >>> 6))]);
+        }
+
+        NumberFilter(long[] words) {
+            this.words = words;
+        }
+
+        void add(int number) {
+            long hash = mix(number);
+            for (int i = 0; i < PROBES; i++) {
+                long bit = probe(hash, i);
+                words[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        boolean mightContain(int number) {
+            long hash = mix(number);
+            for (int i = 0; i < PROBES; i++) {
+                long bit = probe(hash, i);
+                if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** The i-th bit for a hash, from its two halves by double hashing. */
+        private long probe(long hash, int i) {
+            int combined = (int) hash + i * (int) (hash >>> 32);
+            return Integer.toUnsignedLong(combined) % (words.length * 64L);
+        }
+
+        private static long mix(int number) {
+            long h = number * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            return h ^ (h >>> 33);
+        }
+    }
+
+    /**
+     * One decoded segment, the position of each company number in it, and every price
+     * in the segment in company order, for scans that only need the prices.
+     */
+    private static final class Page {
+        private final ABCompany[] companies;
+        private final IntIndexMap positions;
+        private final double[] prices;
+        private final int priceCount;
+
+        Page(ABCompany[] companies, IntIndexMap positions, double[] prices, int priceCount) {
+            this.companies = companies;
+            this.positions = positions;
+            this.prices = prices;
+            this.priceCount = priceCount;
+        }
+    }
+
+    /**
+     * Walks the segments in order, holding one page at a time. Companies from a page
+     * read just for the walk are handed out as they are; those from a cached page or
+     * the tail are copied first.
+     */
+    private final class CompanyIterator implements Iterator<ABCompany> {
+        private int segment;
+        private ABCompany[] companies = new ABCompany[0];
+        private boolean shared;
+        private int position;
+
+        @Override
+        public boolean hasNext() {
+            while (position == companies.length) {
+                if (segment < segmentCount) {
+                    shared = cache.containsKey(segment);
+                    companies = page(segment++, false).companies;
+                } else if (segment == segmentCount && !tail.isEmpty()) {
+                    companies = tail.toArray(new ABCompany[0]);
+                    shared = true;
+                    segment++;
+                } else {
+                    return false;
+                }
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public ABCompany next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ABCompany company = companies[position++];
+            return shared ? copy(company) : company;
+        }
+    }
+}
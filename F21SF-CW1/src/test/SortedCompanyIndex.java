@@ -0,0 +1,137 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * SortedCompanyIndex keeps the companies of a {@link CompanyList} ordered by one
+ * numeric attribute, such as the maximum share price or the ranking. Companies with
+ * equal keys are kept in the order they were added to the list.
+ * <p>
+ * Each company's key is stored in its index entry when the company is indexed, so a
+ * company whose attribute changes can be found and moved with two O(log n) tree
+ * operations. Taking the first K entries costs O(log n + K) and a key range costs
+ * O(log n + matches).
+ */
+class SortedCompanyIndex {
+    /** One indexed company, with the key it is stored under. */
+    private static final class Entry {
+        final double key;
+        final int position;
+        final ABCompany company;
+
+        Entry(double key, int position, ABCompany company) {
+            this.key = key;
+            this.position = position;
+            this.company = company;
+        }
+    }
+
+    private final ToDoubleFunction<ABCompany> keyFunction;
+    private final boolean descending;
+    private final TreeSet<Entry> entries;
+    /** The current entry of each company, by its position in the list. */
+    private final List<Entry> byPosition = new ArrayList<>();
+
+    /**
+     * Creates an empty index.
+     *
+     * @param keyFunction reads the key of a company
+     * @param descending  whether iteration starts at the highest key; keys are compared
+     *                    with {@link Double#compare(double, double)}, so NaN is highest
+     */
+    SortedCompanyIndex(ToDoubleFunction<ABCompany> keyFunction, boolean descending) {
+        this.keyFunction = keyFunction;
+        this.descending = descending;
+        Comparator<Entry> byKey = (a, b) -> Double.compare(a.key, b.key);
+        this.entries = new TreeSet<>((descending ? byKey.reversed() : byKey)
+                .thenComparingInt(entry -> entry.position));
+    }
+
+    /**
+     * Indexes a company appended to the list at the given position.
+     */
+    void add(ABCompany company, int position) {
+        Entry entry = new Entry(keyFunction.applyAsDouble(company), position, company);
+        while (byPosition.size() <= position) {
+            byPosition.add(null);
+        }
+        byPosition.set(position, entry);
+        entries.add(entry);
+    }
+
+    /**
+     * Moves a company whose key may have changed. Nothing is done if the key is the same.
+     */
+    void update(ABCompany company, int position) {
+        Entry old = byPosition.get(position);
+        double key = keyFunction.applyAsDouble(company);
+        if (Double.compare(old.key, key) == 0) {
+            return;
+        }
+        entries.remove(old);
+        Entry entry = new Entry(key, position, company);
+        byPosition.set(position, entry);
+        entries.add(entry);
+    }
+
+    /**
+     * @return the first company in index order, or null if the index is empty
+     */
+    ABCompany first() {
+        return entries.isEmpty() ? null : entries.first().company;
+    }
+
+    /**
+     * Takes companies from the start of the index.
+     *
+     * @param count the maximum number of companies to take
+     * @return up to {@code count} companies in index order
+     */
+    List<ABCompany> head(int count) {
+        return take(entries.iterator(), count);
+    }
+
+    /**
+     * Takes companies from the end of the index, last first.
+     *
+     * @param count the maximum number of companies to take
+     * @return up to {@code count} companies in reverse index order
+     */
+    List<ABCompany> tail(int count) {
+        return take(entries.descendingIterator(), count);
+    }
+
+    /**
+     * Lists the companies whose keys lie in a closed range.
+     *
+     * @param from the lowest key to include
+     * @param to   the highest key to include
+     * @return the matching companies in index order; empty if {@code from > to}
+     */
+    List<ABCompany> range(double from, double to) {
+        if (Double.compare(from, to) > 0) {
+            return new ArrayList<>();
+        }
+        // Positions bracket every entry with the same key, so both ends are inclusive
+        Entry low = new Entry(from, descending ? Integer.MAX_VALUE : Integer.MIN_VALUE, null);
+        Entry high = new Entry(to, descending ? Integer.MIN_VALUE : Integer.MAX_VALUE, null);
+        NavigableSet<Entry> matches = descending
+                ? entries.subSet(high, true, low, true)
+                : entries.subSet(low, true, high, true);
+        return take(matches.iterator(), Integer.MAX_VALUE);
+    }
+
+    private static List<ABCompany> take(Iterator<Entry> iterator, int count) {
+        List<ABCompany> result = new ArrayList<>(Math.min(count, 64));
+        while (result.size() < count && iterator.hasNext()) {
+            result.add(iterator.next().company);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,245 @@
+package test;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StringDictionary encodes repeated text values, such as countries and products or
+ * services, as small int codes. Each distinct value is stored once and every company
+ * holding it keeps only its code, so a feed with millions of rows but a few hundred
+ * distinct values keeps a few hundred strings instead of millions.
+ * <p>
+ * Every code also has a folded code, shared by all values that are equal under
+ * {@link String#equalsIgnoreCase(String)}. Case-insensitive matching and grouping
+ * therefore compare ints rather than strings.
+ * <p>
+ * Encoding is thread-safe, so parallel readers can share one dictionary. Codes are
+ * never released; the dictionary is meant for low-cardinality fields.
+ */
+public class StringDictionary {
+    /** The code of a null value. */
+    public static final int NULL_CODE = -1;
+    /** The dictionary shared by every {@link ABCompany}. */
+    public static final StringDictionary SHARED = new StringDictionary();
+
+    /** Approximate sizes on a 64-bit JVM with compressed oops. */
+    private static final int STRING_BYTES = 24;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int OBJECT_ALIGNMENT = 8;
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> foldedCodes = new ConcurrentHashMap<>();
+    /** Written under the dictionary lock and republished on every addition. */
+    private volatile String[] values = new String[16];
+    private volatile int[] folded = new int[16];
+    /** Estimated heap size of each value as a separate string. */
+    private volatile int[] stringBytes = new int[16];
+    private int size;
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder duplicateBytes = new LongAdder();
+
+    /**
+     * The counters of a dictionary at one moment, so the footprint of a single load
+     * can be reported as the difference between two of them.
+     */
+    public static final class Footprint {
+        private final int size;
+        private final long duplicates;
+        private final long duplicateBytes;
+        private final long heapBytes;
+
+        private Footprint(int size, long duplicates, long duplicateBytes, long heapBytes) {
+            this.size = size;
+            this.duplicates = duplicates;
+            this.duplicateBytes = duplicateBytes;
+            this.heapBytes = heapBytes;
+        }
+    }
+
+    /**
+     * Returns the code of a value, adding the value if it is new.
+     *
+     * @param value the value to encode, may be null
+     * @return the code of the value, or {@link #NULL_CODE} for null
+     */
+    public int encode(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Integer code = codes.get(value);
+        if (code != null) {
+            duplicates.increment();
+            duplicateBytes.add(stringBytes[code]);
+            return code;
+        }
+        return add(value);
+    }
+
+    /**
+     * Returns the value of a code.
+     *
+     * @param code a code returned by {@link #encode(String)}
+     * @return the value, or null for {@link #NULL_CODE}
+     */
+    public String decode(int code) {
+        return code == NULL_CODE ? null : values[code];
+    }
+
+    /**
+     * Returns the folded code of a code. Two codes have the same folded code exactly
+     * when their values are equal ignoring case.
+     *
+     * @param code a code returned by {@link #encode(String)}
+     * @return the folded code, or {@link #NULL_CODE} for {@link #NULL_CODE}
+     */
+    public int foldedCode(int code) {
+        return code == NULL_CODE ? NULL_CODE : folded[code];
+    }
+
+    /**
+     * Finds the folded code a value would have, without adding it.
+     *
+     * @param value the value to look up, may be null
+     * @return the folded code, or {@link #NULL_CODE} if no encoded value equals it ignoring case
+     */
+    public int findFoldedCode(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Integer code = codes.get(value);
+        if (code != null) {
+            return folded[code];
+        }
+        Integer foldedCode = foldedCodes.get(foldCase(value));
+        return foldedCode != null ? foldedCode : NULL_CODE;
+    }
+
+    /**
+     * @return the number of distinct values
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of distinct values ignoring case
+     */
+    public int foldedSize() {
+        return foldedCodes.size();
+    }
+
+    /**
+     * @return the number of encoded values that were already in the dictionary
+     */
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Estimates the heap the duplicate values would have taken as separate strings.
+     *
+     * @return the estimated size in bytes
+     */
+    public long estimateDuplicateBytes() {
+        return duplicateBytes.sum();
+    }
+
+    /**
+     * Estimates the heap used by the dictionary itself, including its hash tables.
+     *
+     * @return the estimated size in bytes
+     */
+    public synchronized long estimateHeapBytes() {
+        long bytes = 3 * align(ARRAY_HEADER_BYTES + 4L * values.length);
+        for (int i = 0; i < size; i++) {
+            // The string itself, plus a map node and a boxed code in each table
+            bytes += stringBytes[i] + 2 * (32 + 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Takes the current counters, to pass to {@link #describeFootprint(Footprint)} later.
+     *
+     * @return the counters as they are now
+     */
+    public Footprint footprint() {
+        // Read the size and heap estimate together so they describe the same values
+        synchronized (this) {
+            return new Footprint(size, getDuplicateCount(), estimateDuplicateBytes(), estimateHeapBytes());
+        }
+    }
+
+    /**
+     * Describes how much heap the values encoded since an earlier footprint saved
+     * against one string per value. The dictionary is shared and never shrinks, so
+     * lifetime totals would include every earlier load; only the growth is counted.
+     *
+     * @param since the footprint taken before the load
+     * @return a one-line summary
+     */
+    public String describeFootprint(Footprint since) {
+        Footprint now = footprint();
+        int added = now.size - since.size;
+        long avoided = now.duplicateBytes - since.duplicateBytes;
+        long used = now.heapBytes - since.heapBytes;
+        return String.format("%d values encoded, %d of them new (%d distinct, %d ignoring case, in total): "
+                        + "dictionary grew %d bytes, duplicate strings avoided %d bytes, %d bytes saved",
+                now.duplicates - since.duplicates + added, added, now.size, foldedSize(), used, avoided, avoided - used);
+    }
+
+    private synchronized int add(String value) {
+        Integer existing = codes.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        int code = size;
+        String[] newValues = values;
+        int[] newFolded = folded;
+        int[] newStringBytes = stringBytes;
+        if (code == newValues.length) {
+            newValues = Arrays.copyOf(newValues, code * 2);
+            newFolded = Arrays.copyOf(newFolded, code * 2);
+            newStringBytes = Arrays.copyOf(newStringBytes, code * 2);
+        }
+        newValues[code] = value;
+        newFolded[code] = foldedCodes.computeIfAbsent(foldCase(value), k -> foldedCodes.size());
+        newStringBytes[code] = (int) stringBytes(value);
+        // Publish the arrays before the code, so a reader holding the code can decode it
+        stringBytes = newStringBytes;
+        folded = newFolded;
+        values = newValues;
+        size++;
+        codes.put(value, code);
+        return code;
+    }
+
+    /**
+     * Folds a value so that two values are equal exactly when
+     * {@link String#equalsIgnoreCase(String)} would consider them equal.
+     */
+    static String foldCase(String value) {
+        char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /** Estimates the size of a string and its backing array. */
+    private static long stringBytes(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) > 0xFF) {
+                length = value.length() * 2;
+                break;
+            }
+        }
+        return STRING_BYTES + align(ARRAY_HEADER_BYTES + length);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + OBJECT_ALIGNMENT - 1) / OBJECT_ALIGNMENT * OBJECT_ALIGNMENT;
+    }
+}
@@ -0,0 +1,293 @@
+package test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * TableRenderer writes fixed-width report text straight into a reusable byte
+ * buffer that is drained into a channel when it fills up. Padded text fields,
+ * integers and two-decimal prices are written without going through
+ * {@link java.util.Formatter}, but produce the same characters as the
+ * {@code %-Ns}, {@code %d} and {@code %-N.2f} conversions they replace.
+ * <p>
+ * Prices with at most two decimals are written digit by digit. Anything else,
+ * such as NaN or prices that need rounding, is passed to {@code String.format}
+ * so that the rounding always matches.
+ */
+public class TableRenderer implements Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    /** Above this magnitude two-decimal prices are no longer all distinct doubles. */
+    private static final double MAX_EXACT_PRICE = 1e13;
+
+    private final WritableByteChannel channel;
+    private final Charset charset;
+    private final Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+    private final byte decimalSeparator;
+    private final boolean asciiDigits;
+    private final byte[] lineSeparator;
+    private final byte[] digits = new byte[20];
+    private byte[] buffer;
+    private ByteBuffer view;
+    private int position;
+    private long bytesWritten;
+
+    /**
+     * Creates a renderer that writes to a channel in the default charset.
+     *
+     * @param channel the channel to write to
+     */
+    public TableRenderer(WritableByteChannel channel) {
+        this(channel, Charset.defaultCharset(), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a renderer that writes to a channel.
+     *
+     * @param channel    the channel to write to
+     * @param charset    the charset for text fields
+     * @param bufferSize the initial size of the byte buffer
+     */
+    public TableRenderer(WritableByteChannel channel, Charset charset, int bufferSize) {
+        this.channel = channel;
+        this.charset = charset;
+        this.buffer = new byte[bufferSize];
+        this.view = ByteBuffer.wrap(buffer);
+        this.lineSeparator = System.lineSeparator().getBytes(charset);
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+        char separator = symbols.getDecimalSeparator();
+        this.asciiDigits = symbols.getZeroDigit() == '0' && separator < 0x80;
+        this.decimalSeparator = (byte) separator;
+    }
+
+    /**
+     * Writes text as it is.
+     *
+     * @param text the text to write; null is written as "null"
+     */
+    public void text(String text) {
+        String value = String.valueOf(text);
+        if (isAscii(value)) {
+            int length = value.length();
+            ensure(length);
+            for (int i = 0; i < length; i++) {
+                buffer[position++] = (byte) value.charAt(i);
+            }
+        } else {
+            bytes(value.getBytes(charset));
+        }
+    }
+
+    /**
+     * Writes text left-justified in a field, like {@code %-Ns}. Text longer than the
+     * field is written in full.
+     *
+     * @param text  the text to write; null is written as "null"
+     * @param width the field width in characters
+     */
+    public void text(String text, int width) {
+        String value = String.valueOf(text);
+        text(value);
+        spaces(width - value.length());
+    }
+
+    /**
+     * Writes an integer left-justified in a field, like {@code %-Ns} applied to an int.
+     *
+     * @param value the value to write
+     * @param width the field width in characters
+     */
+    public void integer(long value, int width) {
+        spaces(width - plainInteger(value));
+    }
+
+    /**
+     * Writes an integer like {@code %d} in the default locale.
+     *
+     * @param value the value to write
+     */
+    public void decimal(long value) {
+        if (asciiDigits) {
+            plainInteger(value);
+        } else {
+            text(String.format(locale, "%d", value));
+        }
+    }
+
+    /**
+     * Writes a price with two decimals like {@code %.2f} in the default locale.
+     *
+     * @param price the price to write
+     * @return the number of characters written
+     */
+    public int price(double price) {
+        double magnitude = Math.abs(price);
+        long cents = Math.round(magnitude * 100);
+        if (!asciiDigits || !(magnitude < MAX_EXACT_PRICE) || cents / 100.0 != magnitude) {
+            String formatted = String.format(locale, "%.2f", price);
+            text(formatted);
+            return formatted.length();
+        }
+        int length = 0;
+        // Checks the sign bit so that -0.0 prints as "-0.00", as Formatter does
+        if (Double.doubleToRawLongBits(price) < 0) {
+            ensure(1);
+            buffer[position++] = '-';
+            length++;
+        }
+        length += plainInteger(cents / 100);
+        ensure(3);
+        int fraction = (int) (cents % 100);
+        buffer[position++] = decimalSeparator;
+        buffer[position++] = (byte) ('0' + fraction / 10);
+        buffer[position++] = (byte) ('0' + fraction % 10);
+        return length + 3;
+    }
+
+    /**
+     * Writes a price with two decimals left-justified in a field, like {@code %-N.2f}.
+     *
+     * @param price the price to write
+     * @param width the field width in characters
+     * @return the number of characters written, including padding
+     */
+    public int price(double price, int width) {
+        int length = price(price);
+        spaces(width - length);
+        return Math.max(length, width);
+    }
+
+    /**
+     * Writes the platform line separator.
+     */
+    public void newLine() {
+        bytes(lineSeparator);
+    }
+
+    /**
+     * Writes a number of spaces; nothing is written if the count is not positive.
+     *
+     * @param count the number of spaces
+     */
+    public void spaces(int count) {
+        if (count > 0) {
+            ensure(count);
+            for (int i = 0; i < count; i++) {
+                buffer[position++] = ' ';
+            }
+        }
+    }
+
+    /**
+     * Drains the buffer into the channel.
+     *
+     * @throws IOException if the channel cannot be written
+     */
+    public void flush() throws IOException {
+        view.clear().limit(position);
+        while (view.hasRemaining()) {
+            channel.write(view);
+        }
+        bytesWritten += position;
+        Metrics.add(Metrics.Counter.BYTES_WRITTEN, position);
+        position = 0;
+    }
+
+    /**
+     * @return the number of bytes flushed to the channel so far
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Flushes the buffer and closes the channel.
+     *
+     * @throws IOException if the channel cannot be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private int plainInteger(long value) {
+        if (value == Long.MIN_VALUE) {
+            byte[] text = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+            bytes(text);
+            return text.length;
+        }
+        int length = 0;
+        if (value < 0) {
+            ensure(1);
+            buffer[position++] = '-';
+            value = -value;
+            length++;
+        }
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        ensure(count);
+        while (count > 0) {
+            buffer[position++] = digits[--count];
+            length++;
+        }
+        return length;
+    }
+
+    private void bytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensure(int count) {
+        if (buffer.length - position < count) {
+            try {
+                flush();
+            } catch (IOException e) {
+                throw new RendererException(e);
+            }
+            if (buffer.length < count) {
+                buffer = new byte[count];
+                view = ByteBuffer.wrap(buffer);
+            }
+        }
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Carries an I/O failure out of the write methods, which drain the buffer
+     * implicitly and so cannot declare {@code IOException}.
+     */
+    static class RendererException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        RendererException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class ConcurrentCompanyListTest {
+    private static final int WINDOW = ABCompany.DEFAULT_WINDOW_CAPACITY;
+
+    @Test
+    void ticksPublishNewStatistics() {
+        ConcurrentCompanyList list = new ConcurrentCompanyList();
+        list.addCompany(company(1, 10));
+        ConcurrentCompanyList.Statistics added = list.getStatistics();
+
+        assertTrue(list.addTick(1, 20));
+        ConcurrentCompanyList.Statistics ticked = list.getStatistics();
+        assertEquals(added.getVersion() + 1, ticked.getVersion());
+        assertEquals(WINDOW, ticked.getPriceCount());
+        assertEquals(10 * (WINDOW - 1) + 20, ticked.getSum());
+        assertEquals(10, ticked.getMin());
+        assertEquals(20, ticked.getMax());
+
+        assertEquals(WINDOW, list.addTicks(new int[] {1, 1, 1, 1, 1}, new double[] {1, 2, 3, 4, 5}, WINDOW));
+        ConcurrentCompanyList.Statistics batched = list.getStatistics();
+        assertEquals(ticked.getVersion() + 1, batched.getVersion());
+        assertEquals(15, batched.getSum());
+        assertEquals(1, batched.getMin());
+        assertEquals(5, batched.getMax());
+        // The earlier snapshots are immutable
+        assertEquals(10 * (WINDOW - 1) + 20, ticked.getSum());
+    }
+
+    @Test
+    void droppedTicksPublishNothing() {
+        ConcurrentCompanyList list = new ConcurrentCompanyList();
+        list.addCompany(company(1, 10));
+        ConcurrentCompanyList.Statistics before = list.getStatistics();
+
+        assertFalse(list.addTick(2, 20));
+        assertEquals(0, list.addTicks(new int[] {2}, new double[] {20}, 1));
+        assertSame(before, list.getStatistics());
+    }
+
+    @Test
+    void sizeAndLookupsFollowAppends() {
+        ConcurrentCompanyList list = new ConcurrentCompanyList();
+        for (int number = 1; number <= 100; number++) {
+            list.addCompany(company(number, number));
+            assertEquals(number, list.size());
+            assertEquals(number, list.getStatistics().getCompanyCount());
+        }
+        for (int number = 1; number <= 100; number++) {
+            assertEquals(number, list.getCompanyByNumber(number).getCompanyNumber());
+        }
+        assertNull(list.getCompanyByNumber(101));
+    }
+
+    @Test
+    void lookupsReturnCopies() {
+        ConcurrentCompanyList list = new ConcurrentCompanyList();
+        list.addCompany(company(1, 10));
+        ConcurrentCompanyList.Statistics before = list.getStatistics();
+
+        list.getCompanyByNumber(1).addTick(99);
+        list.getCompanies().get(0).setSharePrices(new double[] {99});
+        assertEquals(10, list.getCompanyByNumber(1).getMaxSharePrice());
+        assertSame(before, list.getStatistics());
+    }
+
+    /**
+     * Appends company i with every price equal to i while a ticker lowers company 0 by one
+     * per tick. Each snapshot then fixes both counts, through its company count and its
+     * minimum, and must have exactly the sum those writes give.
+     */
+    @Test
+    void snapshotsMatchTheWritesTheyInclude() throws InterruptedException {
+        int appends = 20_000;
+        int ticks = 50_000;
+        ConcurrentCompanyList list = new ConcurrentCompanyList();
+        list.addCompany(company(0, 0));
+        AtomicInteger appended = new AtomicInteger();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        threads.add(thread(start, failure, () -> {
+            for (int i = 1; i <= appends; i++) {
+                list.addCompany(company(i, i));
+                appended.set(i);
+            }
+        }));
+        threads.add(thread(start, failure, () -> {
+            for (int k = 1; k <= ticks; k++) {
+                assertTrue(list.addTick(0, -k));
+            }
+        }));
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 2; r++) {
+            readers.add(thread(start, failure, () -> {
+                long lastVersion = -1;
+                while (writing.get()) {
+                    int known = appended.get();
+                    ConcurrentCompanyList.Statistics statistics = list.getStatistics();
+                    assertTrue(statistics.getVersion() >= lastVersion);
+                    lastVersion = statistics.getVersion();
+                    checkSnapshot(statistics, known, appends, ticks);
+                    if (known > 0) {
+                        assertEquals(known, list.getCompanyByNumber(known).getCompanyNumber());
+                    }
+                    assertTrue(list.size() >= known + 1);
+                }
+            }));
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Concurrent check failed", failure.get());
+        }
+        ConcurrentCompanyList.Statistics done = list.getStatistics();
+        checkSnapshot(done, appends, appends, ticks);
+        assertEquals(appends + 1, done.getCompanyCount());
+        assertEquals(-ticks, done.getMin());
+        assertEquals(1 + appends + ticks, done.getVersion());
+    }
+
+    private static void checkSnapshot(ConcurrentCompanyList.Statistics statistics, int minAppends, int maxAppends,
+                                      int maxTicks) {
+        long companies = statistics.getCompanyCount() - 1;
+        // Company 0 always holds the minimum once it has been ticked
+        long k = statistics.getMin() < 0 ? (long) -statistics.getMin() : 0;
+        assertTrue(companies >= minAppends && companies <= maxAppends, "appends " + companies);
+        assertTrue(k <= maxTicks, "ticks " + k);
+        assertEquals(1 + companies + k, statistics.getVersion());
+        assertEquals(WINDOW * (companies + 1), statistics.getPriceCount());
+        // The window of company 0 holds -k .. -(k - WINDOW + 1), or zeros before that
+        double tickerSum = 0;
+        for (long j = Math.max(1, k - WINDOW + 1); j <= k; j++) {
+            tickerSum -= j;
+        }
+        assertEquals(WINDOW * companies * (companies + 1) / 2 + tickerSum, statistics.getSum());
+        double tickerMax = k < WINDOW ? 0 : -(k - WINDOW + 1);
+        assertEquals(companies > 0 ? companies : tickerMax, statistics.getMax());
+    }
+
+    private static ABCompany company(int number, double price) {
+        double[] prices = new double[WINDOW];
+        Arrays.fill(prices, price);
+        return new ABCompany(number, "Company " + number, "Clothes", 3, "UK", prices);
+    }
+
+    private static Thread thread(CountDownLatch start, AtomicReference<Throwable> failure, Runnable body) {
+        Thread thread = new Thread(() -> {
+            try {
+                start.await();
+                body.run();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,67 @@
+package test;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A Vector API version of the {@link PriceKernels} kernel, which processes several
+ * prices at a time. The module is an incubator module, so this class is compiled in
+ * its own source set and only loaded by {@link PriceKernels} when the JVM was started
+ * with it:
+ * <pre>
+ * java --add-modules jdk.incubator.vector ...
+ * </pre>
+ * The count, minimum and maximum are the same as the scalar kernel's. The sum is kept
+ * as one running sum per lane and the lanes are added together at the end, rather than
+ * strictly left to right, so it can differ from the scalar sum in the last few bits.
+ * The difference is bounded by the usual floating point summation error, about
+ * {@code n * 2^-53} times the sum of the absolute values.
+ */
+final class VectorPriceKernel implements PriceKernels.Kernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    VectorPriceKernel() {
+        if (SPECIES.length() < 2) {
+            throw new UnsupportedOperationException("This machine has no vector registers for doubles");
+        }
+    }
+
+    /**
+     * Keeps one running sum, minimum and maximum per lane, and combines the lanes and
+     * the scalar tail with the totals at the end.
+     */
+    @Override
+    public void accumulate(double[] totals, double[] prices, int from, int to) {
+        int lanes = SPECIES.length();
+        int upper = from + SPECIES.loopBound(to - from);
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        DoubleVector mins = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        DoubleVector maxes = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        int i = from;
+        for (; i < upper; i += lanes) {
+            DoubleVector values = DoubleVector.fromArray(SPECIES, prices, i);
+            sums = sums.add(values);
+            mins = mins.min(values);
+            maxes = maxes.max(values);
+        }
+        double sum = totals[1] + sums.reduceLanes(VectorOperators.ADD);
+        double min = Math.min(totals[2], mins.reduceLanes(VectorOperators.MIN));
+        double max = Math.max(totals[3], maxes.reduceLanes(VectorOperators.MAX));
+        for (; i < to; i++) {
+            double price = prices[i];
+            sum += price;
+            min = Math.min(min, price);
+            max = Math.max(max, price);
+        }
+        totals[0] += to - from;
+        totals[1] = sum;
+        totals[2] = min;
+        totals[3] = max;
+    }
+
+    @Override
+    public String name() {
+        return "vector, " + SPECIES.length() + " lanes";
+    }
+}